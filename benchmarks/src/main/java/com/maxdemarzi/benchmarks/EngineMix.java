@@ -0,0 +1,67 @@
+package com.maxdemarzi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The procedures a load test calls and how often, given as weighted engines such as
+ * {@code khops2=3,parallel.khops2=1}. An engine without a weight has weight 1, and every request
+ * picks its engine at random by weight.
+ */
+public final class EngineMix {
+    static final List<String> ENGINES = Arrays.asList("khops", "khops2", "parallel.khops2", "khops.auto");
+
+    private final List<String> engines;
+    private final long[] cumulative;
+
+    private EngineMix(List<String> engines, long[] cumulative) {
+        this.engines = engines;
+        this.cumulative = cumulative;
+    }
+
+    public static EngineMix of(String mix) {
+        List<String> engines = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            String engine = pair[0].trim();
+            if (!ENGINES.contains(engine)) {
+                throw new IllegalArgumentException("Unknown engine " + engine + ", expected one of " + ENGINES);
+            }
+            long weight = pair.length > 1 ? Long.parseLong(pair[1].trim()) : 1;
+            if (weight < 1 || engines.contains(engine)) {
+                throw new IllegalArgumentException("Engine " + engine + " must be given once, with a positive weight");
+            }
+            engines.add(engine);
+            weights.add(weight);
+        }
+        long[] cumulative = new long[weights.size()];
+        long total = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+        }
+        return new EngineMix(engines, cumulative);
+    }
+
+    public List<String> engines() {
+        return engines;
+    }
+
+    public String pick(SplittableRandom random) {
+        long value = random.nextLong(cumulative[cumulative.length - 1]);
+        int i = 0;
+        while (cumulative[i] <= value) {
+            i++;
+        }
+        return engines.get(i);
+    }
+
+    // Every engine takes the same node, distance and types
+    static String statement(String engine) {
+        return "MATCH (node) WHERE id(node) = $id " +
+                "CALL com.maxdemarzi." + engine + "(node, $distance, $types) YIELD value RETURN value";
+    }
+}
@@ -0,0 +1,152 @@
+package com.maxdemarzi.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic graph shapes for the benchmarks. Every generator produces exactly the requested number
+ * of edges between node ids [0, nodes), without self loops, and the same edges for the same seed.
+ */
+public enum GraphGenerator {
+
+    /**
+     * Chung-Lu graph with a power-law degree distribution (exponent 2.1, like most social graphs).
+     * Ranks are shuffled onto node ids so the hubs are spread over the id space, as they are in a
+     * store that grew over time.
+     */
+    POWER_LAW("powerlaw") {
+        @Override
+        public void edges(long nodes, long edges, SplittableRandom random, EdgeConsumer consumer) {
+            double exponent = -1 / (2.1 - 1);
+            double[] cumulative = new double[(int) nodes];
+            double total = 0;
+            for (int rank = 0; rank < nodes; rank++) {
+                total += Math.pow(rank + 1, exponent);
+                cumulative[rank] = total;
+            }
+            long[] ids = shuffled(nodes, random);
+            for (long e = 0; e < edges; ) {
+                long from = ids[rank(cumulative, random.nextDouble() * total)];
+                long to = ids[rank(cumulative, random.nextDouble() * total)];
+                if (from != to) {
+                    consumer.accept(from, to);
+                    e++;
+                }
+            }
+        }
+    },
+
+    /**
+     * Erdos-Renyi G(n, m) graph: every edge joins two uniformly random nodes.
+     */
+    ERDOS_RENYI("erdos-renyi") {
+        @Override
+        public void edges(long nodes, long edges, SplittableRandom random, EdgeConsumer consumer) {
+            for (long e = 0; e < edges; ) {
+                long from = random.nextLong(nodes);
+                long to = random.nextLong(nodes);
+                if (from != to) {
+                    consumer.accept(from, to);
+                    e++;
+                }
+            }
+        }
+    },
+
+    /**
+     * Square lattice, row by row, joining every node to its right and lower neighbour. Edges beyond
+     * the lattice become random shortcuts, edges short of it leave the last rows unconnected.
+     */
+    GRID("grid") {
+        @Override
+        public void edges(long nodes, long edges, SplittableRandom random, EdgeConsumer consumer) {
+            long width = (long) Math.ceil(Math.sqrt(nodes));
+            long e = 0;
+            for (long node = 0; node < nodes && e < edges; node++) {
+                if ((node + 1) % width != 0 && node + 1 < nodes) {
+                    consumer.accept(node, node + 1);
+                    e++;
+                }
+                if (node + width < nodes && e < edges) {
+                    consumer.accept(node, node + width);
+                    e++;
+                }
+            }
+            ERDOS_RENYI.edges(nodes, edges - e, random, consumer);
+        }
+    },
+
+    /**
+     * Uniform graph where a tenth of a percent of the nodes (at least one) take half of the edges.
+     */
+    SUPERNODE("supernode") {
+        @Override
+        public void edges(long nodes, long edges, SplittableRandom random, EdgeConsumer consumer) {
+            long[] hubs = new long[(int) Math.max(1, nodes / 1000)];
+            for (int h = 0; h < hubs.length; h++) {
+                hubs[h] = random.nextLong(nodes);
+            }
+            for (long e = 0; e < edges; ) {
+                long from = random.nextBoolean() ? hubs[random.nextInt(hubs.length)] : random.nextLong(nodes);
+                long to = random.nextLong(nodes);
+                if (from != to) {
+                    consumer.accept(from, to);
+                    e++;
+                }
+            }
+        }
+    };
+
+    public interface EdgeConsumer {
+        void accept(long from, long to);
+    }
+
+    private final String name;
+
+    GraphGenerator(String name) {
+        this.name = name;
+    }
+
+    public abstract void edges(long nodes, long edges, SplittableRandom random, EdgeConsumer consumer);
+
+    public String generatorName() {
+        return name;
+    }
+
+    public static GraphGenerator of(String name) {
+        for (GraphGenerator generator : values()) {
+            if (generator.name.equals(name)) {
+                return generator;
+            }
+        }
+        throw new IllegalArgumentException("Unknown generator " + name + ", expected powerlaw, erdos-renyi, grid or supernode");
+    }
+
+    // First rank whose cumulative weight reaches the value
+    private static int rank(double[] cumulative, double value) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long[] shuffled(long nodes, SplittableRandom random) {
+        long[] ids = new long[(int) nodes];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+        return ids;
+    }
+}
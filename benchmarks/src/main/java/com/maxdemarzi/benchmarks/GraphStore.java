@@ -0,0 +1,100 @@
+package com.maxdemarzi.benchmarks;
+
+import com.maxdemarzi.KHopsSettings;
+import com.maxdemarzi.Procedures;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.factory.GraphDatabaseBuilder;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.internal.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.configuration.BoltConnector;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.SplittableRandom;
+
+/**
+ * Builds generated graphs into Neo4j stores with the batch inserter, once per generator, size and
+ * seed, and opens them as embedded databases. Every node is a User and every relationship is
+ * KNOWS or FRIENDS at random, so the relationship type filters have something to filter.
+ */
+public final class GraphStore {
+    static final Label USER = Label.label("User");
+    static final RelationshipType[] TYPES = {RelationshipType.withName("KNOWS"), RelationshipType.withName("FRIENDS")};
+
+    private static final String COMPLETE = "generated";
+
+    private GraphStore() {
+    }
+
+    // Stores are kept between runs and forks, a store is only reused once it was fully written
+    public static File build(File directory, GraphGenerator generator, long nodes, long edges, long seed) throws IOException {
+        if (nodes < 2 || nodes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Nodes must be between 2 and " + Integer.MAX_VALUE);
+        }
+        File store = new File(directory, generator.generatorName() + "-" + nodes + "-" + edges + "-" + seed);
+        File complete = new File(store, COMPLETE);
+        if (complete.exists()) {
+            return store;
+        }
+
+        BatchInserter inserter = BatchInserters.inserter(store);
+        try {
+            for (long node = 0; node < nodes; node++) {
+                inserter.createNode(node, Collections.emptyMap(), USER);
+            }
+            SplittableRandom random = new SplittableRandom(seed);
+            generator.edges(nodes, edges, random, (from, to) ->
+                    inserter.createRelationship(from, to, TYPES[random.nextInt(TYPES.length)], Collections.emptyMap()));
+        } finally {
+            inserter.shutdown();
+        }
+        if (!complete.createNewFile()) {
+            throw new IOException("Could not mark " + store + " as generated");
+        }
+        return store;
+    }
+
+    /**
+     * Opens the store with the given traversal pool size and the result cache off,
+     * so every call runs its engine.
+     */
+    public static GraphDatabaseService open(File store, int parallelism) {
+        return builder(store, parallelism).newGraphDatabase();
+    }
+
+    /**
+     * Opens the store like {@link #open(File, int)}, serving Bolt on the port of localhost with
+     * the procedures registered, for clients that call them as a server's clients would.
+     */
+    public static GraphDatabaseService serve(File store, int parallelism, int port) throws KernelException {
+        BoltConnector bolt = new BoltConnector("bolt");
+        GraphDatabaseService db = builder(store, parallelism)
+                .setConfig(bolt.type, "BOLT")
+                .setConfig(bolt.enabled, "true")
+                .setConfig(bolt.listen_address, "localhost:" + port)
+                .setConfig(bolt.encryption_level, BoltConnector.EncryptionLevel.DISABLED.name())
+                .newGraphDatabase();
+        try {
+            ((GraphDatabaseAPI) db).getDependencyResolver()
+                    .resolveDependency(org.neo4j.kernel.impl.proc.Procedures.class)
+                    .registerProcedure(Procedures.class);
+        } catch (KernelException e) {
+            db.shutdown();
+            throw e;
+        }
+        return db;
+    }
+
+    private static GraphDatabaseBuilder builder(File store, int parallelism) {
+        return new GraphDatabaseFactory()
+                .newEmbeddedDatabaseBuilder(store)
+                .setConfig(KHopsSettings.parallelism, String.valueOf(parallelism))
+                .setConfig(KHopsSettings.cache_max_entries, "0");
+    }
+}
@@ -0,0 +1,120 @@
+package com.maxdemarzi.benchmarks;
+
+import com.maxdemarzi.Procedures;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.NullLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the k-hop neighbourhood of random starting nodes with every engine, over every generated
+ * graph shape, distance and relationship type filter. Throughput and sampled latency (with
+ * percentiles) are reported together; run with {@code -prof gc} for the allocation rate and
+ * {@code -t} for the number of concurrent callers. Every pool size in {@code parallelism} is swept
+ * too, narrow it with {@code -p parallelism=...}.
+ * Stores are generated into the directory named by the {@code khops.graphs} system property,
+ * {@code target/graphs} by default, and reused by later runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class KHopsBenchmark {
+    private static final int STARTING_NODES = 1024;
+
+    @Param({"powerlaw", "erdos-renyi", "grid", "supernode"})
+    public String generator;
+
+    @Param({"100000"})
+    public long nodes;
+
+    @Param({"1000000"})
+    public long edges;
+
+    @Param({"42"})
+    public long seed;
+
+    @Param({"khops", "khops2", "parallel.khops2"})
+    public String engine;
+
+    @Param({"1", "2", "3", "4"})
+    public long distance;
+
+    // Comma separated, empty for every type
+    @Param({"", "KNOWS"})
+    public String types;
+
+    // Traversal pool workers, 0 is one per available processor
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private GraphDatabaseService db;
+    private Procedures procedures;
+    private List<String> relationshipTypes;
+    private long[] startingNodes;
+
+    // Every calling thread walks its own way through the starting nodes
+    @State(Scope.Thread)
+    public static class Caller {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File directory = new File(System.getProperty("khops.graphs", "target/graphs"));
+        File store = GraphStore.build(directory, GraphGenerator.of(generator), nodes, edges, seed);
+        db = GraphStore.open(store, parallelism);
+
+        procedures = new Procedures();
+        procedures.db = db;
+        procedures.log = NullLog.getInstance();
+
+        relationshipTypes = types.isEmpty() ? Collections.emptyList() : Arrays.asList(types.split(","));
+
+        SplittableRandom random = new SplittableRandom(seed);
+        startingNodes = new long[STARTING_NODES];
+        for (int i = 0; i < startingNodes.length; i++) {
+            startingNodes[i] = random.nextLong(nodes);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    @Benchmark
+    public long count(Caller caller) {
+        long nodeId = startingNodes[caller.next++ & (STARTING_NODES - 1)];
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.getNodeById(nodeId);
+            long value;
+            switch (engine) {
+                case "khops":
+                    value = procedures.khops(node, distance, relationshipTypes).findFirst().get().value;
+                    break;
+                case "khops2":
+                    value = procedures.khops2(node, distance, relationshipTypes, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList()).findFirst().get().value;
+                    break;
+                case "parallel.khops2":
+                    value = procedures.parallelkhops2(node, distance, relationshipTypes, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList()).findFirst().get().value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown engine " + engine);
+            }
+            tx.success();
+            return value;
+        }
+    }
+}
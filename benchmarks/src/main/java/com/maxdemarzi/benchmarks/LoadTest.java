@@ -0,0 +1,158 @@
+package com.maxdemarzi.benchmarks;
+
+import org.HdrHistogram.Histogram;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a mix of k-hop procedures over Bolt from many concurrent sessions at a fixed arrival
+ * rate, stepping the rate up to trace the throughput against latency curve of every engine, for
+ * every size of the traversal pool. Each step reports the throughput reached and the response
+ * time percentiles, corrected for coordinated omission, against a p99 target, to
+ * {@code loadtest.csv} in the output directory with the full distribution of each step beside it
+ * as an {@code .hgrm} file. Options are given as {@code name=value}:
+ * <pre>
+ *     java -cp target/benchmarks.jar com.maxdemarzi.benchmarks.LoadTest \
+ *         mix=khops2=1,parallel.khops2=1 sessions=64 rates=10,20,40,80 parallelism=2,4,8
+ * </pre>
+ */
+public final class LoadTest {
+    private static final String[] COLUMNS = {"parallelism", "sessions", "rate", "engine", "requests", "errors",
+            "unsent", "throughput", "p50", "p90", "p99", "p999", "max", "serviceP99", "slo"};
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("generator", "powerlaw");
+        DEFAULTS.put("nodes", "100000");
+        DEFAULTS.put("edges", "1000000");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("mix", "khops2,parallel.khops2");
+        DEFAULTS.put("distance", "3");
+        // Comma separated, empty for every type
+        DEFAULTS.put("types", "");
+        DEFAULTS.put("sessions", "32");
+        // Requests per second, every engine of the mix together
+        DEFAULTS.put("rates", "10,20,50,100,200");
+        // Traversal pool workers, 0 is one per available processor
+        DEFAULTS.put("parallelism", "0");
+        // Seconds
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("duration", "30");
+        // Milliseconds the p99 response time should stay within
+        DEFAULTS.put("slo", "100");
+        DEFAULTS.put("port", "7688");
+        DEFAULTS.put("graphs", "target/graphs");
+        DEFAULTS.put("output", "target/loadtest");
+    }
+
+    private static final int STARTING_NODES = 1024;
+    private static final String ALL = "all";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        long nodes = Long.parseLong(options.get("nodes"));
+        long seed = Long.parseLong(options.get("seed"));
+        EngineMix mix = EngineMix.of(options.get("mix"));
+        long distance = Long.parseLong(options.get("distance"));
+        List<String> types = options.get("types").isEmpty()
+                ? Collections.emptyList() : Arrays.asList(options.get("types").split(","));
+        int sessions = Integer.parseInt(options.get("sessions"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+        long slo = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get("slo")));
+        int port = Integer.parseInt(options.get("port"));
+
+        File store = GraphStore.build(new File(options.get("graphs")), GraphGenerator.of(options.get("generator")),
+                nodes, Long.parseLong(options.get("edges")), seed);
+        File output = new File(options.get("output"));
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Could not create " + output);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] startingNodes = new long[STARTING_NODES];
+        for (int i = 0; i < startingNodes.length; i++) {
+            startingNodes[i] = random.nextLong(nodes);
+        }
+
+        try (PrintStream csv = new PrintStream(new File(output, "loadtest.csv"), "UTF-8")) {
+            csv.println(String.join(",", COLUMNS));
+            System.out.printf("%11s %8s %6s %16s %8s %6s %6s %10s %8s %8s %8s %8s %8s %10s %4s%n", (Object[]) COLUMNS);
+            for (String parallelism : options.get("parallelism").split(",")) {
+                GraphDatabaseService db = GraphStore.serve(store, Integer.parseInt(parallelism.trim()), port);
+                Config config = Config.build().withoutEncryption().withMaxConnectionPoolSize(sessions).toConfig();
+                try (Driver driver = GraphDatabase.driver("bolt://localhost:" + port, config)) {
+                    OpenLoop load = new OpenLoop(driver, mix, startingNodes, distance, types, sessions);
+                    String[] rates = options.get("rates").split(",");
+                    // Warms up the page cache and the JIT at the lowest rate, its times are thrown away
+                    load.run(Double.parseDouble(rates[0]), warmup, seed);
+                    for (String rate : rates) {
+                        Map<String, OpenLoop.Latencies> latencies = load.run(Double.parseDouble(rate), duration, seed);
+                        OpenLoop.Latencies all = new OpenLoop.Latencies();
+                        latencies.values().forEach(all::add);
+                        latencies.put(ALL, all);
+                        for (Map.Entry<String, OpenLoop.Latencies> engine : latencies.entrySet()) {
+                            String[] row = row(parallelism.trim(), sessions, rate.trim(), engine.getKey(), engine.getValue(), duration, slo);
+                            csv.println(String.join(",", row));
+                            System.out.printf("%11s %8s %6s %16s %8s %6s %6s %10s %8s %8s %8s %8s %8s %10s %4s%n", (Object[]) row);
+                            distribution(new File(output, parallelism.trim() + "-" + rate.trim() + "-" + engine.getKey() + ".hgrm"),
+                                    engine.getValue().response);
+                        }
+                    }
+                } finally {
+                    db.shutdown();
+                }
+            }
+        }
+    }
+
+    // Throughput in requests per second, times in milliseconds
+    private static String[] row(String parallelism, int sessions, String rate, String engine, OpenLoop.Latencies latencies,
+                                long duration, long slo) {
+        Histogram response = latencies.response;
+        long p99 = response.getValueAtPercentile(99);
+        return new String[]{parallelism, String.valueOf(sessions), rate, engine,
+                String.valueOf(response.getTotalCount() + latencies.errors + latencies.unsent),
+                String.valueOf(latencies.errors), String.valueOf(latencies.unsent),
+                String.format(Locale.ROOT, "%.1f", response.getTotalCount() / (duration / 1e9)),
+                millis(response.getValueAtPercentile(50)), millis(response.getValueAtPercentile(90)),
+                millis(p99), millis(response.getValueAtPercentile(99.9)), millis(response.getMaxValue()),
+                millis(latencies.service.getValueAtPercentile(99)),
+                // Requests that never came back miss it too
+                p99 <= slo && latencies.errors == 0 && latencies.unsent == 0 ? "met" : "miss"};
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+
+    private static void distribution(File file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(file, "UTF-8")) {
+            histogram.outputPercentileDistribution(out, 1e6);
+        }
+    }
+
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !DEFAULTS.containsKey(arg.substring(0, equals))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected name=value with one of " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,141 @@
+package com.maxdemarzi.benchmarks;
+
+import org.HdrHistogram.Histogram;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a fixed arrival rate over a number of Bolt sessions, whether or not the ones
+ * before them have come back, as independent clients do. Response time is measured from when a
+ * request was due rather than from when a session got round to sending it, so the requests held
+ * up behind a slow one are charged for the wait instead of going unrecorded (the coordinated
+ * omission correction). Service time, from send to result, is recorded alongside it.
+ */
+final class OpenLoop {
+    // Ends a session once the queue before it has been drained
+    private static final Request STOP = new Request(null, 0, 0);
+
+    private final Driver driver;
+    private final EngineMix mix;
+    private final long[] startingNodes;
+    private final long distance;
+    private final List<String> types;
+    private final int sessions;
+
+    OpenLoop(Driver driver, EngineMix mix, long[] startingNodes, long distance, List<String> types, int sessions) {
+        this.driver = driver;
+        this.mix = mix;
+        this.startingNodes = startingNodes;
+        this.distance = distance;
+        this.types = types;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Sends rate requests a second for the given time, then waits at most as long again for the
+     * sessions to catch up. Requests still queued by then are counted as unsent.
+     */
+    Map<String, Latencies> run(double rate, long nanos, long seed) throws InterruptedException {
+        BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+        long start = System.nanoTime();
+        long deadline = start + 2 * nanos;
+
+        ExecutorService workers = Executors.newFixedThreadPool(sessions);
+        List<Future<Map<String, Latencies>>> results = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            results.add(workers.submit(() -> send(queue, deadline)));
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        for (long due = start; due - start < nanos; due += interval) {
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            queue.put(new Request(mix.pick(random), startingNodes[random.nextInt(startingNodes.length)], due));
+        }
+        for (int i = 0; i < sessions; i++) {
+            queue.put(STOP);
+        }
+
+        Map<String, Latencies> latencies = new TreeMap<>();
+        try {
+            for (Future<Map<String, Latencies>> result : results) {
+                for (Map.Entry<String, Latencies> engine : result.get().entrySet()) {
+                    latencies.computeIfAbsent(engine.getKey(), key -> new Latencies()).add(engine.getValue());
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load test session failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        return latencies;
+    }
+
+    // One session, sending whatever is due next until told to stop or out of time
+    private Map<String, Latencies> send(BlockingQueue<Request> queue, long deadline) throws InterruptedException {
+        Map<String, Latencies> latencies = new HashMap<>();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("distance", distance);
+        parameters.put("types", types);
+        try (Session session = driver.session()) {
+            Request request;
+            while ((request = queue.take()) != STOP) {
+                Latencies engine = latencies.computeIfAbsent(request.engine, key -> new Latencies());
+                if (System.nanoTime() > deadline) {
+                    engine.unsent++;
+                    continue;
+                }
+                parameters.put("id", request.nodeId);
+                long sent = System.nanoTime();
+                try {
+                    session.run(EngineMix.statement(request.engine), parameters).consume();
+                } catch (Neo4jException e) {
+                    engine.errors++;
+                    continue;
+                }
+                long done = System.nanoTime();
+                engine.response.recordValue(done - request.due);
+                engine.service.recordValue(done - sent);
+            }
+        }
+        return latencies;
+    }
+
+    private static final class Request {
+        final String engine;
+        final long nodeId;
+        // When it should have been sent, had there been a session free
+        final long due;
+
+        Request(String engine, long nodeId, long due) {
+            this.engine = engine;
+            this.nodeId = nodeId;
+            this.due = due;
+        }
+    }
+
+    /**
+     * Response and service times of the completed requests of an engine, in nanoseconds.
+     */
+    static final class Latencies {
+        final Histogram response = new Histogram(3);
+        final Histogram service = new Histogram(3);
+        long errors;
+        long unsent;
+
+        void add(Latencies other) {
+            response.add(other.response);
+            service.add(other.service);
+            errors += other.errors;
+            unsent += other.unsent;
+        }
+    }
+}
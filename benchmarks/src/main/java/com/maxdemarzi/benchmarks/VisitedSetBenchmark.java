@@ -0,0 +1,97 @@
+package com.maxdemarzi.benchmarks;
+
+import com.maxdemarzi.NodeSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the representations a traversal can hold its seen sets and frontiers in, over a range
+ * of densities: how long it takes to fill a set, probe it and walk it, and how many bytes it takes.
+ * The bytes of the filled set are reported as the {@code bytes} secondary result of {@link #fill}.
+ * The ids are random over the id space, the way the neighbours of a frontier spread over the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class VisitedSetBenchmark {
+    private static final int PROBES = 1 << 20;
+
+    @Param({"ROARING_32", "ROARING_64", "DENSE", "MAPPED"})
+    public NodeSet.Kind kind;
+
+    @Param({"10000000"})
+    public long highId;
+
+    // Share of the id space in the set
+    @Param({"0.001", "0.01", "0.0625", "0.25"})
+    public double density;
+
+    @Param({"42"})
+    public long seed;
+
+    private long[] ids;
+    private long[] probes;
+    private NodeSet filled;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(seed);
+        ids = new long[(int) (highId * density)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextLong(highId);
+        }
+        probes = new long[PROBES];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = random.nextLong(highId);
+        }
+        filled = fill();
+    }
+
+    @Benchmark
+    public NodeSet fill(Footprint footprint) {
+        NodeSet set = fill();
+        footprint.bytes = set.bytes();
+        return set;
+    }
+
+    @Benchmark
+    public long probe() {
+        long found = 0;
+        for (long nodeId : probes) {
+            if (filled.contains(nodeId)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long walk() {
+        long sum = 0;
+        PrimitiveIterator.OfLong iterator = filled.iterator();
+        while (iterator.hasNext()) {
+            sum += iterator.nextLong();
+        }
+        return sum;
+    }
+
+    private NodeSet fill() {
+        NodeSet set = NodeSet.create(kind, highId);
+        for (long nodeId : ids) {
+            set.add(nodeId);
+        }
+        return set;
+    }
+}
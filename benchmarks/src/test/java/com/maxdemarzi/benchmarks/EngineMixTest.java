@@ -0,0 +1,34 @@
+package com.maxdemarzi.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EngineMixTest {
+
+    @Test
+    void shouldPickEnginesByWeight() {
+        EngineMix mix = EngineMix.of("khops2=3,parallel.khops2");
+        SplittableRandom random = new SplittableRandom(42);
+
+        int khops2 = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (mix.pick(random).equals("khops2")) {
+                khops2++;
+            }
+        }
+
+        assertThat(mix.engines()).containsExactly("khops2", "parallel.khops2");
+        assertThat(khops2).isBetween(7200, 7800);
+    }
+
+    @Test
+    void shouldRejectUnknownEngines() {
+        assertThatThrownBy(() -> EngineMix.of("khops3")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EngineMix.of("khops2=0")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EngineMix.of("khops2,khops2")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,59 @@
+package com.maxdemarzi.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GraphGeneratorTest {
+
+    @Test
+    void shouldGenerateEdgeCountWithoutSelfLoops() {
+        for (GraphGenerator generator : GraphGenerator.values()) {
+            List<long[]> edges = edges(generator, 1000, 5000, 42);
+
+            assertThat(edges).as(generator.generatorName()).hasSize(5000);
+            for (long[] edge : edges) {
+                assertThat(edge[0]).isNotEqualTo(edge[1]).isBetween(0L, 999L);
+                assertThat(edge[1]).isBetween(0L, 999L);
+            }
+        }
+    }
+
+    @Test
+    void shouldGenerateSameEdgesForSameSeed() {
+        for (GraphGenerator generator : GraphGenerator.values()) {
+            assertThat(edges(generator, 1000, 5000, 7)).as(generator.generatorName())
+                    .usingElementComparator((a, b) -> a[0] == b[0] && a[1] == b[1] ? 0 : 1)
+                    .containsExactlyElementsOf(edges(generator, 1000, 5000, 7));
+        }
+    }
+
+    @Test
+    void shouldJoinGridNeighbours() {
+        List<long[]> edges = edges(GraphGenerator.GRID, 9, 12, 42);
+
+        // 3 by 3 lattice: 6 horizontal and 6 vertical edges, no shortcuts
+        assertThat(edges).hasSize(12);
+        for (long[] edge : edges) {
+            assertThat(edge[1] - edge[0]).isIn(1L, 3L);
+        }
+    }
+
+    @Test
+    void shouldLookUpGeneratorsByName() {
+        assertThat(GraphGenerator.of("powerlaw")).isEqualTo(GraphGenerator.POWER_LAW);
+        assertThat(GraphGenerator.of("erdos-renyi")).isEqualTo(GraphGenerator.ERDOS_RENYI);
+        assertThat(GraphGenerator.of("grid")).isEqualTo(GraphGenerator.GRID);
+        assertThat(GraphGenerator.of("supernode")).isEqualTo(GraphGenerator.SUPERNODE);
+    }
+
+    private static List<long[]> edges(GraphGenerator generator, long nodes, long edges, long seed) {
+        List<long[]> generated = new ArrayList<>();
+        generator.edges(nodes, edges, new SplittableRandom(seed), (from, to) -> generated.add(new long[]{from, to}));
+        return generated;
+    }
+}
@@ -0,0 +1,67 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.ApproxLoadResult;
+import com.maxdemarzi.results.ApproxResult;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ApproximateProcedures {
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.khops.approx.load", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.approx.load(Long distance, List<String> relationshipTypes, Long precision) - estimates the k-hop size of every node for every distance up to the given one")
+    public Stream<ApproxLoadResult> load(@Name(value = "distance", defaultValue = "2") Long distance,
+                                         @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                         @Name(value = "precision", defaultValue = "11") Long precision) {
+        if (distance < 1) {
+            throw new IllegalArgumentException("Distance must be at least 1");
+        }
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16");
+        }
+
+        long start = System.currentTimeMillis();
+        HyperAnf anf = HyperAnf.load(TraversalPool.get(db), db, distance, step(relationshipTypes), precision.intValue());
+        long millis = System.currentTimeMillis() - start;
+        log.info("Estimated k-hop sizes of " + anf.highId() + " nodes up to distance " + distance + " in " + millis + "ms");
+        return Stream.of(new ApproxLoadResult(anf.highId(), anf.distance(), anf.relativeError(), anf.bytes(), millis));
+    }
+
+    @Procedure(name = "com.maxdemarzi.khops.approx", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.approx(Node node, Long distance, List<String> relationshipTypes)")
+    public Stream<ApproxResult> approx(@Name("startingNode") Node startingNode,
+                                       @Name(value = "distance", defaultValue = "1") Long distance,
+                                       @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) {
+        if (distance < 1) return Stream.empty();
+
+        if (startingNode == null) {
+            return Stream.empty();
+        } else {
+            HyperAnf anf = KHopsExtension.get(db).anf();
+            Double estimate = anf == null ? null : anf.estimate(startingNode.getId(), distance, step(relationshipTypes));
+            if (estimate == null) {
+                throw new IllegalStateException("No estimates loaded for this distance and these relationship types, call com.maxdemarzi.khops.approx.load first");
+            }
+            return Stream.of(new ApproxResult(estimate, estimate * anf.relativeError()));
+        }
+    }
+
+    private Step step(List<String> relationshipTypes) {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        return Step.of(ktx.tokenRead(), relationshipTypes);
+    }
+}
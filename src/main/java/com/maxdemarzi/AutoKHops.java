@@ -0,0 +1,269 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.logging.Log;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * The k-hop traversal of {@code com.maxdemarzi.khops.auto}, which plans each hop as it starts.
+ * The work of a hop is estimated from the degree of the start node for the first one, then from
+ * the degree the frontier showed on the previous hop, or from the counts store statistics of the
+ * unvisited nodes going bottom-up. A hop expected to read more relationships than
+ * {@link KHopsSettings#auto_parallel_threshold} runs on the traversal pool if it has a free slot
+ * and the calling transaction has no uncommitted changes the workers would miss,
+ * every other one runs on the calling thread without any task or merge overhead. Once a traversal
+ * has moved to the pool it stays there: a frontier that large seldom shrinks back, and moving the
+ * sets back to one thread would cost about as much as the hop.
+ */
+public class AutoKHops {
+    public static final String SEQUENTIAL = "sequential";
+    public static final String PARALLEL = "parallel";
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final KernelTransaction ktx;
+    private final Read read;
+    private final CursorFactory cursors;
+    private final Pattern pattern;
+    private final long highId;
+    private final TraversalBudget budget;
+    private final LabelFilter filter;
+    private final TraversalProfile profile;
+    private final TraversalPool pool;
+    private final DirectionOptimizer optimizer;
+    private final Expansion neighbours;
+    private final List<String> plan = new ArrayList<>();
+
+    private NodeSet seen;
+    private NodeSet current;
+    // Set once the traversal moved to the pool
+    private Frontier frontier;
+
+    public AutoKHops(GraphDatabaseService db, Log log, KernelTransaction ktx, Pattern pattern, long highId,
+                     TraversalBudget budget, LabelFilter filter, TraversalProfile profile) {
+        this.db = db;
+        this.log = log;
+        this.ktx = ktx;
+        this.read = ktx.dataRead();
+        this.cursors = ktx.cursors();
+        this.pattern = pattern;
+        this.highId = highId;
+        this.budget = budget;
+        this.filter = filter;
+        this.profile = profile;
+        this.pool = TraversalPool.get(db);
+        this.optimizer = new DirectionOptimizer(read, pattern);
+        this.neighbours = new Expansion(read, cursors, pattern.step(0));
+    }
+
+    /**
+     * Counts the nodes within distance of the node, not counting the node itself.
+     */
+    public long count(long nodeId, long distance) {
+        seen = NodeSet.sparse(highId);
+        current = NodeSet.sparse(highId);
+        seen.add(nodeId);
+        current.add(nodeId);
+        optimizer.scanned(1, degree(nodeId));
+
+        traverse(distance, null);
+        if (filter != null) {
+            return frontier == null ? filter.count(seen, nodeId) : filter.count(frontier.seen(), nodeId);
+        }
+        return seenCount() - 1;
+    }
+
+    /**
+     * The nodes within distance of any of the seeds, as if they were one node, without the seeds.
+     * Excluded nodes are taken as seen from the start, so they are never reached, expanded or
+     * returned. When hops is given, the nodes first reached by each hop are added to it in order.
+     */
+    public Roaring64NavigableMap neighbourhood(NodeSet seeds, NodeSet excluded, long distance,
+                                               List<Roaring64NavigableMap> hops) {
+        current = NodeSet.sparse(highId);
+        current.or(seeds);
+        current.andNot(excluded);
+        current.adapt();
+        seen = NodeSet.sparse(highId);
+        seen.or(current);
+        seen.or(excluded);
+        seen.adapt();
+        budget.spill(seen, current);
+        // The first hop is planned from the average degree, reading the degree of every seed would cost as much as the hop
+
+        traverse(distance, hops);
+        Roaring64NavigableMap neighbourhood = copy(seen());
+        neighbourhood.andNot(seeds.toRoaring64());
+        neighbourhood.andNot(excluded.toRoaring64());
+        return neighbourhood;
+    }
+
+    // Hops until the distance, the budget or the graph runs out
+    private void traverse(long distance, List<Roaring64NavigableMap> hops) {
+        Roaring64NavigableMap before = hops == null ? null : copy(seen());
+        try {
+            for (long hop = 0; hop < distance && budget.check(seenCount(), bytes()); hop++) {
+                if (filter != null && hop > 0) {
+                    prune();
+                }
+                long frontierCount = frontierCount();
+                if (frontierCount == 0) {
+                    break;
+                }
+                optimizer.hop(hop);
+                boolean bottomUp = optimizer.bottomUp(frontierCount, seenCount());
+                if (frontier == null && optimizer.work(frontierCount, seenCount()) > pool.parallelThreshold()
+                        && pool.parallelism() > 1 && pool.tryAdmit(ktx)) {
+                    frontier = pool.frontier(highId);
+                    frontier.load(seen, current);
+                    seen = null;
+                    current = null;
+                }
+                plan.add((frontier == null ? SEQUENTIAL : PARALLEL) + " "
+                        + (bottomUp ? TraversalProfile.BOTTOM_UP : TraversalProfile.TOP_DOWN));
+                Step step = pattern.step(hop);
+                neighbours.follow(step);
+                TraversalProfile.Hop profiled = profile == null ? null
+                        : profile.next(bottomUp ? TraversalProfile.BOTTOM_UP : TraversalProfile.TOP_DOWN, frontierCount);
+
+                if (frontier != null) {
+                    if (bottomUp) {
+                        frontier.bottomUp(pool, db, log, step, budget, profiled);
+                    } else {
+                        frontier.hop(pool, db, log, step, budget, profiled);
+                        optimizer.scanned(frontierCount, frontier.scanned());
+                    }
+                } else if (bottomUp) {
+                    long started = System.nanoTime();
+                    NodeSet next = NodeSet.sparse(highId);
+                    BottomUp.scan(read, cursors, seen, current, next, step, budget);
+                    long scanned = System.nanoTime();
+                    seen.or(next);
+                    seen.adapt();
+                    budget.spill(seen, next);
+                    current = next;
+                    if (profiled != null) {
+                        profiled.expanded(scanned - started, null);
+                        profiled.worked(scanned - started);
+                        profiled.merged(System.nanoTime() - scanned, current.cardinality(), bytes());
+                    }
+                } else {
+                    // Discoveries are merged into the seen set as they are found
+                    long started = System.nanoTime();
+                    long relationships = hop();
+                    optimizer.scanned(frontierCount, relationships);
+                    if (profiled != null) {
+                        long nanos = System.nanoTime() - started;
+                        profiled.expanded(nanos, relationships);
+                        profiled.worked(nanos);
+                        profiled.merged(0, current.cardinality(), bytes());
+                    }
+                }
+
+                if (hops != null) {
+                    Roaring64NavigableMap reached = copy(seen());
+                    reached.andNot(before);
+                    before.or(reached);
+                    hops.add(reached);
+                }
+            }
+        } finally {
+            if (frontier != null) {
+                pool.release();
+            }
+        }
+    }
+
+    // What each hop ran as, in order
+    public List<String> plan() {
+        return plan;
+    }
+
+    // Every node seen, for the cache
+    public Roaring64NavigableMap seen() {
+        return frontier == null ? seen.toRoaring64() : frontier.seen();
+    }
+
+    // Top-down on the calling thread, returning the relationships read
+    private long hop() {
+        NodeSet next = NodeSet.sparse(highId);
+        long relationships = 0;
+        long expanded = 0;
+        PrimitiveIterator.OfLong iterator = current.iterator();
+        while (iterator.hasNext()) {
+            if (++expanded % TraversalBudget.CHECK_INTERVAL == 0) {
+                next.adapt();
+                budget.spill(seen, current, next);
+                if (!budget.check(seen.cardinality(), seen.bytes() + current.bytes() + next.bytes())) {
+                    break;
+                }
+            }
+            neighbours.select(iterator.nextLong());
+            while (neighbours.next()) {
+                long neighbour = neighbours.neighbour();
+                relationships++;
+                if (!seen.contains(neighbour)) {
+                    seen.add(neighbour);
+                    next.add(neighbour);
+                }
+            }
+        }
+        seen.adapt();
+        next.adapt();
+        budget.spill(seen, next);
+        current = next;
+        return relationships;
+    }
+
+    // Relationships of the start node, read from its groups when it has them
+    private long degree(long nodeId) {
+        NodeCursor nodeCursor = cursors.allocateNodeCursor();
+        read.singleNode(nodeId, nodeCursor);
+        if (!nodeCursor.next()) {
+            return 0;
+        }
+        if (nodeCursor.isDense()) {
+            return DenseExpansion.degree(nodeCursor, cursors.allocateRelationshipGroupCursor(), pattern.step(0));
+        }
+        long degree = 0;
+        neighbours.select(nodeCursor);
+        while (neighbours.next()) {
+            degree++;
+        }
+        return degree;
+    }
+
+    // Nodes the filter doesn't go through are seen, but never expanded
+    private void prune() {
+        if (frontier == null) {
+            filter.prune(current);
+        } else {
+            frontier.prune(filter);
+        }
+    }
+
+    // The seen set of a sequential traversal may be the bitmap it is held in
+    private static Roaring64NavigableMap copy(Roaring64NavigableMap bitmap) {
+        Roaring64NavigableMap copy = new Roaring64NavigableMap();
+        copy.or(bitmap);
+        return copy;
+    }
+
+    private long frontierCount() {
+        return frontier == null ? current.cardinality() : frontier.frontierCount();
+    }
+
+    private long seenCount() {
+        return frontier == null ? seen.cardinality() : frontier.seenCount();
+    }
+
+    private long bytes() {
+        return frontier == null ? seen.bytes() + current.bytes() : frontier.bytes();
+    }
+}
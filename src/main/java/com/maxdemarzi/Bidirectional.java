@@ -0,0 +1,116 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.*;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * Questions about two nodes at once. Whether one is within k hops of the other is answered by
+ * expanding from both of them, always the side with the smaller frontier, until the two seen sets
+ * meet or their depths add up to k. Each side then only goes about half the distance, so far fewer
+ * nodes are read than by a k-hop traversal from either node. The side of the second node follows
+ * directed relationships backwards, towards the nodes that reach it.
+ */
+public class Bidirectional {
+    // Returned as the distance of nodes that are not within k hops, or not known to be
+    public static final long UNREACHABLE = -1;
+
+    private final long highId;
+    private final TraversalBudget budget;
+    private final Expansion forward;
+    private final Expansion backward;
+
+    public Bidirectional(Read read, CursorFactory cursors, Step step, long highId, TraversalBudget budget) {
+        this.highId = highId;
+        this.budget = budget;
+        this.forward = new Expansion(read, cursors, step);
+        this.backward = new Expansion(read, cursors, step.reverse());
+    }
+
+    /**
+     * The length of the shortest path between the two nodes if it is at most distance,
+     * {@link #UNREACHABLE} otherwise or when the budget ran out first.
+     */
+    public long distance(long from, long to, long distance) {
+        if (from == to) {
+            return 0;
+        }
+        Side a = new Side(from, forward);
+        Side b = new Side(to, backward);
+        while (a.depth + b.depth < distance && budget.check(a.seen.cardinality() + b.seen.cardinality(),
+                a.seen.bytes() + a.frontier.bytes() + b.seen.bytes() + b.frontier.bytes())) {
+            budget.spill(a.seen, a.frontier, b.seen, b.frontier);
+            Side smaller = a.frontier.cardinality() <= b.frontier.cardinality() ? a : b;
+            Side other = smaller == a ? b : a;
+            if (smaller.expand(other)) {
+                return a.depth + b.depth;
+            }
+            // One side has nothing left to reach, the other one can not meet it anymore
+            if (smaller.frontier.isEmpty()) {
+                break;
+            }
+        }
+        return UNREACHABLE;
+    }
+
+    /**
+     * The nodes within distance hops of the node, itself included.
+     */
+    public NodeSet neighbourhood(long nodeId, long distance) {
+        Side side = new Side(nodeId, forward);
+        while (side.depth < distance && !side.frontier.isEmpty()
+                && budget.check(side.seen.cardinality(), side.seen.bytes() + side.frontier.bytes())) {
+            budget.spill(side.seen, side.frontier);
+            side.expand(null);
+        }
+        return side.seen;
+    }
+
+    private final class Side {
+        private final NodeSet seen = NodeSet.sparse(highId);
+        private final Expansion neighbours;
+        private NodeSet frontier = NodeSet.sparse(highId);
+        private long depth;
+
+        Side(long nodeId, Expansion neighbours) {
+            this.neighbours = neighbours;
+            seen.add(nodeId);
+            frontier.add(nodeId);
+        }
+
+        // One hop further, true as soon as a node the other side has seen is found
+        boolean expand(Side other) {
+            NodeSet next = NodeSet.sparse(highId);
+            long expanded = 0;
+            PrimitiveIterator.OfLong iterator = frontier.iterator();
+            while (iterator.hasNext()) {
+                if (++expanded % TraversalBudget.CHECK_INTERVAL == 0 && !budget.checkTime()) {
+                    break;
+                }
+                neighbours.select(iterator.nextLong());
+                while (neighbours.next()) {
+                    if (found(neighbours.neighbour(), next, other)) {
+                        depth++;
+                        return true;
+                    }
+                }
+            }
+            depth++;
+            next.adapt();
+            seen.adapt();
+            frontier = next;
+            return false;
+        }
+
+        private boolean found(long neighbour, NodeSet next, Side other) {
+            if (other != null && other.seen.contains(neighbour)) {
+                return true;
+            }
+            if (!seen.contains(neighbour)) {
+                seen.add(neighbour);
+                next.add(neighbour);
+            }
+            return false;
+        }
+    }
+}
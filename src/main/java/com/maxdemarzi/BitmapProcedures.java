@@ -0,0 +1,98 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.BitmapResult;
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * K-hop neighbourhoods of node sets kept outside the database, passed in and returned as
+ * serialized {@link Roaring64NavigableMap}s, so that neither side has to list millions of ids.
+ */
+public class BitmapProcedures {
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.khops.bitmap", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.bitmap(ByteArray seeds, Long distance, List<String> relationshipTypes, ByteArray exclude, Boolean hops, Map limits, List<List<String>> pattern) - the nodes within distance of any seed, as a serialized Roaring64NavigableMap")
+    public Stream<BitmapResult> bitmap(@Name("seeds") byte[] seeds,
+                                       @Name(value = "distance", defaultValue = "1") Long distance,
+                                       @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                       // Neo4j 3.5 can not map null to a byte[] parameter, not even its own default
+                                       @Name(value = "exclude", defaultValue = "null") Object exclude,
+                                       @Name(value = "hops", defaultValue = "false") Boolean hops,
+                                       @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits,
+                                       @Name(value = "pattern", defaultValue = "[]") List<List<String>> pattern) {
+        if (distance < 1 || seeds == null) return Stream.empty();
+
+        long started = System.nanoTime();
+        KernelTransaction ktx = ktx();
+        TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
+        long highId = NodeIds.highId(db);
+        NodeSet from = NodeSet.of(read(seeds, "seeds"), highId);
+        NodeSet excluded = NodeSet.sparse(highId);
+        if (exclude instanceof byte[]) {
+            excluded = NodeSet.of(read((byte[]) exclude, "exclude"), highId);
+        } else if (exclude != null) {
+            throw new IllegalArgumentException("exclude is not a serialized Roaring64NavigableMap");
+        }
+
+        AutoKHops traversal = new AutoKHops(db, log, ktx,
+                Pattern.of(ktx.tokenRead(), relationshipTypes, pattern), highId, budget, null, null);
+        List<Roaring64NavigableMap> reached = Boolean.TRUE.equals(hops) ? new ArrayList<>() : null;
+        Roaring64NavigableMap neighbourhood = traversal.neighbourhood(from, excluded, distance, reached);
+        long count = neighbourhood.getLongCardinality();
+        if (budget.exhausted()) {
+            log.debug("khops.bitmap stopped early, " + budget.exceeded() + " limit reached after " + count + " nodes");
+        }
+
+        KHopsMetrics.get(db).record(KHopsMetrics.BITMAP, started, count, false, budget.exhausted());
+        return Stream.of(new BitmapResult(write(neighbourhood), count,
+                reached == null ? null : reached.stream().map(BitmapProcedures::write).collect(Collectors.toList()),
+                traversal.plan(), budget.exceeded()));
+    }
+
+    static Roaring64NavigableMap read(byte[] bytes, String name) {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        try {
+            bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException(name + " is not a serialized Roaring64NavigableMap", e);
+        }
+        return bitmap;
+    }
+
+    // Run containers where they are smaller, large neighbourhoods are mostly runs of consecutive ids
+    static byte[] write(Roaring64NavigableMap bitmap) {
+        bitmap.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, bitmap.serializedSizeInBytes()));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private KernelTransaction ktx() {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        return ctx.getKernelTransactionBoundToThisThread(true);
+    }
+}
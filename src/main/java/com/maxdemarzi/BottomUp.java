@@ -0,0 +1,134 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongPredicate;
+
+/**
+ * Bottom-up hop: finds the unvisited nodes of one shard that have a neighbour in the frontier,
+ * giving up on each node at the first such neighbour. The step of the hop is followed backwards,
+ * from the node the frontier would have reached to the frontier node.
+ * A task covers the id blocks {@code shard + k * shards} for k in [from, to).
+ */
+public class BottomUp extends RecursiveTask<NodeSet> {
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final LongPredicate seen;
+    private final NodeSet[] frontier;
+    private final Step step;
+    private final int shard;
+    private final long from;
+    private final long to;
+    private final long highId;
+    private final TraversalBudget budget;
+    private final TraversalProfile.Hop hop;
+
+    public BottomUp(GraphDatabaseService db, Log log, LongPredicate seen, NodeSet[] frontier,
+                    Step step, int shard, long from, long to, long highId, TraversalBudget budget, TraversalProfile.Hop hop) {
+        this.db = db;
+        this.log = log;
+        this.seen = seen;
+        this.frontier = frontier;
+        this.step = step;
+        this.shard = shard;
+        this.from = from;
+        this.to = to;
+        this.highId = highId;
+        this.budget = budget;
+        this.hop = hop;
+    }
+
+    @Override
+    protected NodeSet compute() {
+        // One block of ids per task
+        if (to - from > 1) {
+            long middle = (from + to) >>> 1;
+            BottomUp left = new BottomUp(db, log, seen, frontier, step, shard, from, middle, highId, budget, hop);
+            left.fork();
+            NodeSet next = new BottomUp(db, log, seen, frontier, step, shard, middle, to, highId, budget, hop).compute();
+            next.or(left.join());
+            return next;
+        }
+
+        long started = hop == null ? 0 : System.nanoTime();
+        NodeSet next = NodeSet.sparse(highId);
+        try (Transaction tx = db.beginTx()) {
+            DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+            CursorFactory cursors = ktx.cursors();
+            Read read = ktx.dataRead();
+
+            Expansion neighbours = new Expansion(read, cursors, step.reverse());
+
+            long block = shard + from * frontier.length;
+            long end = Math.min((block + 1) << PartitionedFrontier.BLOCK_SHIFT, highId);
+            for (long nodeId = block << PartitionedFrontier.BLOCK_SHIFT; nodeId < end; nodeId++) {
+                // Only this block's nodes are known here, a lower bound of what the traversal holds
+                if (nodeId % TraversalBudget.CHECK_INTERVAL == 0
+                        && !budget.check(next.cardinality(), next.bytes())) {
+                    break;
+                }
+                if (seen.test(nodeId)) {
+                    continue;
+                }
+                if (neighbours.select(nodeId) && touches(neighbours, frontier)) {
+                    next.add(nodeId);
+                }
+            }
+        }
+        if (hop != null) {
+            hop.worked(System.nanoTime() - started);
+        }
+        return next;
+    }
+
+    /**
+     * Sequential bottom-up hop over every node in the store, adding the unvisited nodes
+     * with a neighbour in the frontier to next. Stops early once the budget is exhausted.
+     */
+    static void scan(Read read, CursorFactory cursors, NodeSet seen, NodeSet frontier,
+                     NodeSet next, Step step, TraversalBudget budget) {
+        Expansion neighbours = new Expansion(read, cursors, step.reverse());
+        NodeCursor nodeCursor = cursors.allocateNodeCursor();
+        NodeSet[] shards = new NodeSet[]{frontier};
+
+        long scanned = 0;
+        read.allNodesScan(nodeCursor);
+        while (nodeCursor.next()) {
+            if (++scanned % TraversalBudget.CHECK_INTERVAL == 0) {
+                next.adapt();
+                budget.spill(seen, frontier, next);
+                if (!budget.check(seen.cardinality() + next.cardinality(), seen.bytes() + frontier.bytes() + next.bytes())) {
+                    break;
+                }
+            }
+            long nodeId = nodeCursor.nodeReference();
+            if (!seen.contains(nodeId)) {
+                // Already on the node, no need to read it again
+                neighbours.select(nodeCursor);
+                if (touches(neighbours, shards)) {
+                    next.add(nodeId);
+                }
+            }
+        }
+    }
+
+    private static boolean touches(Expansion neighbours, NodeSet[] frontier) {
+        while (neighbours.next()) {
+            long neighbour = neighbours.neighbour();
+            if (frontier[PartitionedFrontier.shardOf(neighbour, frontier.length)].contains(neighbour)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the k-hop neighbourhood of every node in a range of batches and writes it to a property.
+ * Batch b is the batchSize node ids from {@code origin + b * batchSize}, counted and written in a
+ * transaction of its own, committed
+ * before the batch is recorded in the {@link Checkpoint}. The cursors and sets of a batch are
+ * allocated once and reused for every node it counts.
+ */
+public class BulkKHops extends RecursiveAction {
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final long origin;
+    private final long from;
+    private final long to;
+    private final long batchSize;
+    private final long highId;
+    private final long distance;
+    private final Step step;
+    private final String property;
+    private final Checkpoint checkpoint;
+    private final TraversalBudget budget;
+    private final LongAdder nodes;
+    private final LongAdder batches;
+
+    public BulkKHops(GraphDatabaseService db, Log log, long origin, long from, long to, long batchSize, long highId,
+                     long distance, Step step, String property, Checkpoint checkpoint, TraversalBudget budget,
+                     LongAdder nodes, LongAdder batches) {
+        this.db = db;
+        this.log = log;
+        this.origin = origin;
+        this.from = from;
+        this.to = to;
+        this.batchSize = batchSize;
+        this.highId = highId;
+        this.distance = distance;
+        this.step = step;
+        this.property = property;
+        this.checkpoint = checkpoint;
+        this.budget = budget;
+        this.nodes = nodes;
+        this.batches = batches;
+    }
+
+    @Override
+    protected void compute() {
+        // One batch per task, the lower batches first so the checkpoint moves steadily
+        if (to - from > 1) {
+            long middle = (from + to) >>> 1;
+            BulkKHops right = new BulkKHops(db, log, origin, middle, to, batchSize, highId, distance, step, property,
+                    checkpoint, budget, nodes, batches);
+            right.fork();
+            new BulkKHops(db, log, origin, from, middle, batchSize, highId, distance, step, property,
+                    checkpoint, budget, nodes, batches).compute();
+            right.join();
+            return;
+        }
+        // Terminated jobs leave the batches not started yet to the next run
+        if (!budget.checkTime()) {
+            return;
+        }
+
+        NodeSet[] sets = {NodeSet.sparse(highId), NodeSet.sparse(highId), NodeSet.sparse(highId)};
+
+        long counted = 0;
+        try (Transaction tx = db.beginTx()) {
+            DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+            CursorFactory cursors = ktx.cursors();
+            Read read = ktx.dataRead();
+
+            Expansion neighbours = new Expansion(read, cursors, step);
+            NodeCursor nodeCursor = cursors.allocateNodeCursor();
+            int checkpoints = ktx.tokenRead().nodeLabel(Checkpoint.LABEL.name());
+
+            long end = Math.min(origin + (from + 1) * batchSize, highId);
+            for (long nodeId = origin + from * batchSize; nodeId < end; nodeId++) {
+                read.singleNode(nodeId, nodeCursor);
+                if (!nodeCursor.next() || nodeCursor.hasLabel(checkpoints)) {
+                    continue;
+                }
+                long count = count(neighbours, nodeId, sets);
+                db.getNodeById(nodeId).setProperty(property, count);
+                counted++;
+            }
+            tx.success();
+        }
+        nodes.add(counted);
+        batches.increment();
+        checkpoint.done(from);
+    }
+
+    // The k-hop count of one node, in the sets of the batch
+    private long count(Expansion neighbours, long nodeId, NodeSet[] sets) {
+        NodeSet seen = sets[0];
+        NodeSet current = sets[1];
+        NodeSet next = sets[2];
+        seen.clear();
+        current.clear();
+        seen.add(nodeId);
+        current.add(nodeId);
+
+        for (long hop = 0; hop < distance && !current.isEmpty(); hop++) {
+            next.clear();
+            PrimitiveIterator.OfLong iterator = current.iterator();
+            while (iterator.hasNext()) {
+                neighbours.select(iterator.nextLong());
+                while (neighbours.next()) {
+                    long neighbour = neighbours.neighbour();
+                    if (!seen.contains(neighbour)) {
+                        seen.add(neighbour);
+                        next.add(neighbour);
+                    }
+                }
+            }
+            NodeSet swap = current;
+            current = next;
+            next = swap;
+        }
+        // don't count the starting node
+        return seen.cardinality() - 1;
+    }
+}
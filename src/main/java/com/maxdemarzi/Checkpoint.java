@@ -0,0 +1,106 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.*;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * Progress of a {@code com.maxdemarzi.khops.write} job, kept on a {@code :KHopsCheckpoint} node
+ * so a job that failed or was terminated resumes where it stopped. Batches finish in any order;
+ * the node keeps the first node id not known to be written, so a resumed job only redoes the batches
+ * that were running or had finished out of order, writing the same counts again. Being a node id,
+ * it holds whatever batch size the resumed job is run with.
+ * The node is saved at most every {@link #SAVE_INTERVAL} milliseconds, in a transaction of its own.
+ */
+public class Checkpoint {
+    static final Label LABEL = Label.label("KHopsCheckpoint");
+    static final long SAVE_INTERVAL = 1000;
+
+    private final GraphDatabaseService db;
+    private final String job;
+    // Node id the job started from, batches are counted from there
+    private final long first;
+    private final long batchSize;
+    // Batches done past the first one not done
+    private final Roaring64NavigableMap done = new Roaring64NavigableMap();
+    private long next;
+    private long saved;
+
+    private Checkpoint(GraphDatabaseService db, String job, long first, long batchSize) {
+        this.db = db;
+        this.job = job;
+        this.first = first;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The job's checkpoint, starting from the saved node id if there is one and resume is set.
+     * Runs in the calling transaction.
+     */
+    static Checkpoint load(GraphDatabaseService db, String job, boolean resume, long batchSize) {
+        Node node = db.findNode(LABEL, "job", job);
+        long first = resume && node != null ? (Long) node.getProperty("nextNode", 0L) : 0;
+        return new Checkpoint(db, job, first, batchSize);
+    }
+
+    // The node id the job started from
+    public long first() {
+        return first;
+    }
+
+    // The first batch not done yet, counted from the first node id
+    public synchronized long next() {
+        return next;
+    }
+
+    // The first node id not known to be written
+    public synchronized long nextNode() {
+        return first + next * batchSize;
+    }
+
+    /**
+     * Records a batch as written, saving the checkpoint if it moved and was not saved recently.
+     * Called once the batch's transaction is committed.
+     */
+    synchronized void done(long batch) {
+        done.addLong(batch);
+        long moved = next;
+        while (done.contains(moved)) {
+            done.removeLong(moved);
+            moved++;
+        }
+        if (moved == next) {
+            return;
+        }
+        next = moved;
+        long now = System.currentTimeMillis();
+        if (now - saved >= SAVE_INTERVAL) {
+            save();
+            saved = now;
+        }
+    }
+
+    // Writes the first node id not known to be written, the job resumes from there
+    synchronized void save() {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.findNode(LABEL, "job", job);
+            if (node == null) {
+                node = db.createNode(LABEL);
+                node.setProperty("job", job);
+            }
+            node.setProperty("nextNode", nextNode());
+            node.setProperty("updated", System.currentTimeMillis());
+            tx.success();
+        }
+    }
+
+    // The job is done, nothing to resume
+    void remove() {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.findNode(LABEL, "job", job);
+            if (node != null) {
+                node.delete();
+            }
+            tx.success();
+        }
+    }
+}
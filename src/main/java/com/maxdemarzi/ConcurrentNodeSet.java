@@ -0,0 +1,83 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free set of node ids shared by every worker of a traversal: one bit per id below the high
+ * id, set with compare-and-set, so exactly one of the workers that find a node at the same time
+ * claims it. Nodes created after the traversal started can have ids past the bitset; they go to
+ * a concurrent hash set.
+ */
+public class ConcurrentNodeSet {
+    private final AtomicLongArray words;
+    private final long capacity;
+    private final Set<Long> overflow = ConcurrentHashMap.newKeySet();
+    private final LongAdder cardinality = new LongAdder();
+
+    public ConcurrentNodeSet(long highId) {
+        this.words = new AtomicLongArray((int) ((highId + Long.SIZE - 1) >>> 6));
+        this.capacity = (long) words.length() << 6;
+    }
+
+    /**
+     * Adds the node, returning true only to the caller that added it.
+     */
+    public boolean claim(long nodeId) {
+        if (nodeId >= capacity) {
+            if (overflow.add(nodeId)) {
+                cardinality.increment();
+                return true;
+            }
+            return false;
+        }
+        int word = (int) (nodeId >>> 6);
+        long bit = 1L << nodeId;
+        long current = words.get(word);
+        while ((current & bit) == 0) {
+            if (words.compareAndSet(word, current, current | bit)) {
+                cardinality.increment();
+                return true;
+            }
+            current = words.get(word);
+        }
+        return false;
+    }
+
+    public boolean contains(long nodeId) {
+        if (nodeId >= capacity) {
+            return overflow.contains(nodeId);
+        }
+        return (words.get((int) (nodeId >>> 6)) & (1L << nodeId)) != 0;
+    }
+
+    public long cardinality() {
+        return cardinality.sum();
+    }
+
+    public long bytes() {
+        // A boxed id and its hash set entry take about 48 bytes
+        return (long) words.length() * Long.BYTES + overflow.size() * 48L;
+    }
+
+    // Only once the workers are done with it
+    public Roaring64NavigableMap toRoaring64() {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        for (int word = 0; word < words.length(); word++) {
+            long remaining = words.get(word);
+            while (remaining != 0) {
+                long bit = Long.lowestOneBit(remaining);
+                remaining ^= bit;
+                bitmap.addLong(((long) word << 6) + Long.numberOfTrailingZeros(bit));
+            }
+        }
+        for (long nodeId : overflow) {
+            bitmap.addLong(nodeId);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,117 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Expands one relationship chain of a dense node, that is the outgoing, incoming or looping
+ * relationships of one type, into an outbox of its own.
+ * A node with millions of relationships is split into one task per chain, so its types and
+ * directions are read by as many workers instead of holding up a single one.
+ */
+public class DenseExpansion extends RecursiveTask<Outbox> {
+    private final GraphDatabaseService db;
+    private final long nodeId;
+    private final long reference;
+    private final Supplier<Outbox> outboxes;
+    private final LongAdder scanned;
+    private final TraversalBudget budget;
+    private final TraversalProfile.Hop hop;
+
+    DenseExpansion(GraphDatabaseService db, long nodeId, long reference, Supplier<Outbox> outboxes, LongAdder scanned,
+                   TraversalBudget budget, TraversalProfile.Hop hop) {
+        this.db = db;
+        this.nodeId = nodeId;
+        this.reference = reference;
+        this.outboxes = outboxes;
+        this.scanned = scanned;
+        this.budget = budget;
+        this.hop = hop;
+    }
+
+    // Relationships of the node the step follows, as counted by its relationship groups
+    static long degree(NodeCursor nodeCursor, RelationshipGroupCursor groups, Step step) {
+        long degree = 0;
+        nodeCursor.relationships(groups);
+        while (groups.next()) {
+            int direction = step.direction(groups.type());
+            if ((direction & Step.OUTGOING) != 0) {
+                degree += groups.outgoingCount();
+            }
+            if ((direction & Step.INCOMING) != 0) {
+                degree += groups.incomingCount();
+            }
+            if (direction != 0) {
+                degree += groups.loopCount();
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * One task per non empty chain the step follows. The chain references are read now,
+     * the tasks can run in any transaction.
+     */
+    static List<DenseExpansion> split(GraphDatabaseService db, NodeCursor nodeCursor, RelationshipGroupCursor groups,
+                                      Step step, Supplier<Outbox> outboxes, LongAdder scanned, TraversalBudget budget,
+                                      TraversalProfile.Hop hop) {
+        List<DenseExpansion> chains = new ArrayList<>();
+        long nodeId = nodeCursor.nodeReference();
+        nodeCursor.relationships(groups);
+        while (groups.next()) {
+            int direction = step.direction(groups.type());
+            if (direction == 0) {
+                continue;
+            }
+            if ((direction & Step.OUTGOING) != 0 && groups.outgoingCount() > 0) {
+                chains.add(new DenseExpansion(db, nodeId, groups.outgoingReference(), outboxes, scanned, budget, hop));
+            }
+            if ((direction & Step.INCOMING) != 0 && groups.incomingCount() > 0) {
+                chains.add(new DenseExpansion(db, nodeId, groups.incomingReference(), outboxes, scanned, budget, hop));
+            }
+            if (groups.loopCount() > 0) {
+                chains.add(new DenseExpansion(db, nodeId, groups.loopsReference(), outboxes, scanned, budget, hop));
+            }
+        }
+        return chains;
+    }
+
+    @Override
+    protected Outbox compute() {
+        long started = hop == null ? 0 : System.nanoTime();
+        Outbox next = budget.open(outboxes);
+        try (Transaction tx = db.beginTx()) {
+            DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+            RelationshipTraversalCursor rels = ktx.cursors().allocateRelationshipTraversalCursor();
+            long relationships = 0;
+
+            ktx.dataRead().relationships(nodeId, reference, rels);
+            while (rels.next()) {
+                long neighbour = rels.neighbourNodeReference();
+                next.add(neighbour);
+                if (++relationships % TraversalBudget.CHECK_INTERVAL == 0 && !NextHop.withinBudget(budget, next)) {
+                    break;
+                }
+            }
+            rels.close();
+            scanned.add(relationships);
+        }
+        if (hop != null) {
+            hop.worked(System.nanoTime() - started);
+        }
+        return next;
+    }
+}
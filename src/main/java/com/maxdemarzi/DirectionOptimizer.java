@@ -0,0 +1,98 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.Read;
+
+/**
+ * Decides before each hop whether to expand the frontier top-down or to search for it
+ * bottom-up from the unvisited nodes, as in Beamer, Asanovic and Patterson's
+ * direction-optimizing breadth-first search.
+ */
+public class DirectionOptimizer {
+    // Go bottom-up once the frontier has more edges than the unexplored nodes divided by ALPHA
+    static final int ALPHA = 14;
+    // Go back top-down once the frontier has fewer nodes than the graph divided by BETA
+    static final int BETA = 24;
+
+    private final long nodes;
+    private final Pattern pattern;
+    // Average degree of the nodes under each step of the pattern
+    private final double[] averageDegrees;
+    private Step step;
+    private double averageDegree;
+    private double frontierDegree;
+    private boolean bottomUp;
+
+    public DirectionOptimizer(Read read, Step step) {
+        this(read, Pattern.of(step));
+    }
+
+    public DirectionOptimizer(Read read, Pattern pattern) {
+        this.nodes = Math.max(1, read.nodesGetCount());
+        this.pattern = pattern;
+        this.averageDegrees = new double[pattern.size()];
+        for (int i = 0; i < averageDegrees.length; i++) {
+            averageDegrees[i] = degree(read, pattern.step(i)) / nodes;
+        }
+        this.step = pattern.step(0);
+        this.averageDegree = averageDegrees[0];
+        this.frontierDegree = averageDegree;
+    }
+
+    // A relationship followed both ways is reached from both of its nodes, one followed one way from one of them
+    private static double degree(Read read, Step step) {
+        double ends = Long.bitCount(step.any()) * (double) read.relationshipsGetCount();
+        for (int type : step.types()) {
+            int directions = step.direction(type) & ~step.any();
+            if (type >= 0 && directions != 0) {
+                ends += Long.bitCount(directions) * (double) read.countsForRelationship(Read.ANY_LABEL, type, Read.ANY_LABEL);
+            }
+        }
+        return ends;
+    }
+
+    /**
+     * Moves on to the hop, counted from 0, before it is decided on. A hop following another step
+     * than the one before starts over from the average degree of its step, the degree the last
+     * frontier was read with says nothing about other types or directions.
+     */
+    public void hop(long hop) {
+        Step next = pattern.step(hop);
+        if (!next.equals(step)) {
+            step = next;
+            averageDegree = averageDegrees[(int) (hop % averageDegrees.length)];
+            frontierDegree = averageDegree;
+        }
+    }
+
+    /**
+     * Records how many relationships a top-down hop read for a frontier of the given size,
+     * the next frontier is assumed to have the same degree.
+     */
+    public void scanned(long frontier, long relationships) {
+        if (frontier > 0) {
+            frontierDegree = (double) relationships / frontier;
+        }
+    }
+
+    /**
+     * Relationships the hop just decided on is expected to read: those of the frontier going
+     * top-down, at most those of every unvisited node going bottom-up.
+     */
+    public double work(long frontier, long seen) {
+        if (bottomUp) {
+            return Math.max(0, nodes - seen) * averageDegree;
+        }
+        return frontier * frontierDegree;
+    }
+
+    public boolean bottomUp(long frontier, long seen) {
+        if (bottomUp) {
+            bottomUp = frontier >= nodes / BETA;
+        } else {
+            double frontierEdges = frontier * frontierDegree;
+            double unexploredEdges = Math.max(0, nodes - seen) * averageDegree;
+            bottomUp = frontierEdges > unexploredEdges / ALPHA;
+        }
+        return bottomUp;
+    }
+}
@@ -0,0 +1,184 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.*;
+
+/**
+ * The neighbours of one node after another, through cursors allocated once and reused for every
+ * node a worker expands. When a {@link Step} does not follow every relationship, those of a dense
+ * node are read from the chains of the followed groups and directions only, the other chains are
+ * never touched, and those of a sparse node are filtered as they are read.
+ * <pre>
+ *     if (expansion.select(nodeId)) {
+ *         while (expansion.next()) {
+ *             visit(expansion.neighbour());
+ *         }
+ *     }
+ * </pre>
+ */
+final class Expansion {
+    // Chains of a relationship group, in the order they are read
+    private static final int OUTGOING = 0;
+    private static final int INCOMING = 1;
+    private static final int LOOPS = 2;
+    private static final int DONE = 3;
+
+    // How the relationships of the selected node are read
+    private static final int NONE = 0;
+    private static final int ALL = 1;
+    // The whole chain of a sparse node, keeping the relationships the step follows only
+    private static final int FILTERED = 2;
+    // The followed chains of a dense node, one after another
+    private static final int GROUPED = 3;
+
+    private final Read read;
+    private final NodeCursor nodeCursor;
+    private final RelationshipGroupCursor groups;
+    private final RelationshipTraversalCursor rels;
+
+    private Step step;
+    private long nodeId;
+    private int mode = NONE;
+    private int chain = DONE;
+    // Directions followed in the current group
+    private int direction;
+    // Whether rels is on a chain of the current group
+    private boolean reading;
+    private long relationships;
+
+    Expansion(Read read, CursorFactory cursors, int[] types) {
+        this(read, cursors, Step.of(types));
+    }
+
+    Expansion(Read read, CursorFactory cursors, Step step) {
+        this.read = read;
+        this.step = step;
+        this.nodeCursor = cursors.allocateNodeCursor();
+        this.groups = cursors.allocateRelationshipGroupCursor();
+        this.rels = cursors.allocateRelationshipTraversalCursor();
+    }
+
+    // The step of the nodes selected from now on, for a traversal that follows other relationships every hop
+    void follow(Step step) {
+        this.step = step;
+    }
+
+    /**
+     * Moves to the relationships of the node, false if there is no such node.
+     */
+    boolean select(long nodeId) {
+        read.singleNode(nodeId, nodeCursor);
+        if (!nodeCursor.next()) {
+            mode = NONE;
+            return false;
+        }
+        select(nodeCursor);
+        return true;
+    }
+
+    /**
+     * Moves to the relationships of the node the cursor is on, which needs not be read again.
+     */
+    void select(NodeCursor node) {
+        nodeId = node.nodeReference();
+        if (step.all()) {
+            mode = ALL;
+            node.allRelationships(rels);
+        } else if (node.isDense()) {
+            mode = GROUPED;
+            chain = DONE;
+            reading = false;
+            node.relationships(groups);
+        } else {
+            mode = FILTERED;
+            node.allRelationships(rels);
+        }
+    }
+
+    /**
+     * Moves to the next relationship of the selected types, false once there are none left.
+     */
+    boolean next() {
+        switch (mode) {
+            case ALL:
+                if (rels.next()) {
+                    relationships++;
+                    return true;
+                }
+                break;
+            case FILTERED:
+                while (rels.next()) {
+                    if (step.follows(rels.type(), rels.sourceNodeReference(), rels.targetNodeReference(), nodeId)) {
+                        relationships++;
+                        return true;
+                    }
+                }
+                break;
+            case GROUPED:
+                do {
+                    if (reading && rels.next()) {
+                        relationships++;
+                        return true;
+                    }
+                } while (nextChain());
+                break;
+            default:
+                break;
+        }
+        mode = NONE;
+        return false;
+    }
+
+    // The node at the other end of the current relationship
+    long neighbour() {
+        return rels.neighbourNodeReference();
+    }
+
+    // Relationships returned by next() since this expansion was created
+    long relationships() {
+        return relationships;
+    }
+
+    // Positions rels on the next non empty followed chain
+    private boolean nextChain() {
+        reading = false;
+        while (true) {
+            if (chain == DONE) {
+                if (!groups.next()) {
+                    return false;
+                }
+                direction = step.direction(groups.type());
+                if (direction == 0) {
+                    continue;
+                }
+                chain = OUTGOING;
+            }
+            long count;
+            long reference;
+            switch (chain++) {
+                case OUTGOING:
+                    if ((direction & Step.OUTGOING) == 0) {
+                        continue;
+                    }
+                    count = groups.outgoingCount();
+                    reference = groups.outgoingReference();
+                    break;
+                case INCOMING:
+                    if ((direction & Step.INCOMING) == 0) {
+                        continue;
+                    }
+                    count = groups.incomingCount();
+                    reference = groups.incomingReference();
+                    break;
+                default: // LOOPS, both outgoing and incoming
+                    count = groups.loopCount();
+                    reference = groups.loopsReference();
+                    break;
+            }
+            if (count > 0) {
+                read.relationships(nodeId, reference, rels);
+                reading = true;
+                return true;
+            }
+        }
+    }
+}
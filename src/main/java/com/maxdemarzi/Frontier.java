@@ -0,0 +1,41 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.logging.Log;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * The frontier and seen set of a parallel traversal, and how a hop moves from one frontier to the
+ * next on the traversal pool. Chosen by {@link KHopsSettings#frontier}.
+ */
+public interface Frontier {
+
+    void seed(long nodeId);
+
+    // Takes over a traversal that ran on one thread so far
+    void load(NodeSet seen, NodeSet frontier);
+
+    // Drops the frontier nodes the filter does not expand, they stay seen
+    void prune(LabelFilter filter);
+
+    // Top-down hop, expanding every frontier node
+    void hop(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+             TraversalProfile.Hop hop);
+
+    // Bottom-up hop, searching for the frontier from every unvisited node
+    void bottomUp(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+                  TraversalProfile.Hop hop);
+
+    // Relationships read by the last top-down hop
+    long scanned();
+
+    long frontierCount();
+
+    // Every node seen so far
+    Roaring64NavigableMap seen();
+
+    long seenCount();
+
+    // Size of the seen and frontier sets
+    long bytes();
+}
@@ -0,0 +1,323 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Approximate k-hop sizes of every node at once, in the style of HyperANF (Boldi, Rosa and Vigna).
+ * Every node keeps a HyperLogLog counter of the nodes it can reach, starting with itself.
+ * Each round merges every node's counter with its neighbours' counters from the previous round,
+ * so after round t it counts the nodes within t hops. That is k passes over the relationships
+ * instead of one traversal per node. The estimates of every round are kept, as floats,
+ * so any distance up to k can be looked up afterwards.
+ * The counters are packed at {@link Counters#BITS} bits per register. What the counters and
+ * estimates need is checked against the free direct memory before anything is allocated.
+ */
+public class HyperAnf {
+    private static final int BLOCK_SHIFT = PartitionedFrontier.BLOCK_SHIFT;
+
+
+    private final long highId;
+    private final long distance;
+    private final Step step;
+    private final int precision;
+    private final OffHeapArray estimates;
+
+    private HyperAnf(long highId, long distance, Step step, int precision, OffHeapArray estimates) {
+        this.highId = highId;
+        this.distance = distance;
+        this.step = step;
+        this.precision = precision;
+        this.estimates = estimates;
+    }
+
+    /**
+     * Runs distance rounds over the relationships the step follows with 2^precision registers per node,
+     * and replaces the estimates the database held with the result.
+     * The rounds take a slot of the pool, the load fails when none frees up in time.
+     */
+    public static HyperAnf load(TraversalPool pool, GraphDatabaseService db, long distance, Step step, int precision) {
+        long highId = NodeIds.highId(db);
+        int registers = 1 << precision;
+
+        long bytes = bytes(highId, distance, registers);
+        long free = OffHeapArray.free();
+        if (bytes > free) {
+            throw new IllegalArgumentException("Estimating " + highId + " nodes up to distance " + distance + " with precision "
+                    + precision + " needs " + bytes + " bytes of direct memory, " + free + " are free. Lower the precision "
+                    + "or the distance, or raise -XX:MaxDirectMemorySize");
+        }
+
+        if (!pool.admit()) {
+            throw new IllegalStateException("Too many parallel traversals running, try com.maxdemarzi.khops.approx.load again later");
+        }
+        OffHeapArray estimates;
+        try {
+            Counters counters = new Counters(highId, registers);
+            Counters next = new Counters(highId, registers);
+            estimates = new OffHeapArray(highId * distance, Float.BYTES);
+
+            pool.invoke(new Seed(counters, precision, highId, 0, blocks(highId)));
+
+            for (int round = 0; round < distance; round++) {
+                pool.invoke(new Round(db, step, counters, next, estimates, round, highId, 0, blocks(highId)));
+                Counters swap = counters;
+                counters = next;
+                next = swap;
+            }
+        } finally {
+            pool.release();
+        }
+
+        HyperAnf anf = new HyperAnf(highId, distance, step, precision, estimates);
+        KHopsExtension.get(db).anf(anf);
+        return anf;
+    }
+
+    // Two sets of counters, one per round being read and written, and the estimates of every round
+    static long bytes(long highId, long distance, int registers) {
+        return 2 * Counters.bytes(highId, registers) + highId * distance * Float.BYTES;
+    }
+
+    static long blocks(long highId) {
+        return (highId + (1L << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+    }
+
+    /**
+     * The estimated number of nodes within distance of the node, itself excluded,
+     * or null if these estimates do not cover the node, the distance or the relationships followed.
+     */
+    public Double estimate(long nodeId, long distance, Step step) {
+        if (nodeId < 0 || nodeId >= highId || distance < 1 || distance > this.distance || !this.step.equals(step)) {
+            return null;
+        }
+        return (double) Float.intBitsToFloat((int) estimates.get((distance - 1) * highId + nodeId));
+    }
+
+    // One standard error of HyperLogLog with this many registers
+    public double relativeError() {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public long distance() {
+        return distance;
+    }
+
+    public long highId() {
+        return highId;
+    }
+
+    public long bytes() {
+        return estimates.bytes();
+    }
+
+    // Murmur3 finalizer, spreads node ids over all 64 bits
+    static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    static double estimate(Counters counters, long nodeId) {
+        int registers = counters.registers;
+        double sum = 0;
+        int zeros = 0;
+        for (int register = 0; register < registers; register++) {
+            int rank = counters.get(nodeId, register);
+            sum += Math.scalb(1.0, -rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / registers);
+        double estimate = alpha * registers * registers / sum;
+        // Small range correction
+        if (estimate <= 2.5 * registers && zeros > 0) {
+            estimate = registers * Math.log((double) registers / zeros);
+        }
+        return estimate;
+    }
+
+    /**
+     * The HyperLogLog registers of every node, packed {@link #PER_WORD} to a long so that no register
+     * straddles two longs, and every node starts on a long of its own so workers never share one.
+     * A rank needs six bits at most, but saturating at 31 loses nothing in practice: a register would
+     * have to see about 2^31 nodes to go past it.
+     */
+    static final class Counters {
+        static final int BITS = 5;
+        static final int PER_WORD = Long.SIZE / BITS;
+        static final int MAX_RANK = (1 << BITS) - 1;
+
+        final int registers;
+        private final int words;
+        private final long highId;
+        private final OffHeapArray array;
+
+        Counters(long highId, int registers) {
+            this.registers = registers;
+            this.words = words(registers);
+            this.highId = highId;
+            this.array = new OffHeapArray(highId * words, Long.BYTES);
+        }
+
+        static long bytes(long highId, int registers) {
+            return highId * words(registers) * Long.BYTES;
+        }
+
+        private static int words(int registers) {
+            return (registers + PER_WORD - 1) / PER_WORD;
+        }
+
+        int get(long nodeId, int register) {
+            long word = array.get(nodeId * words + register / PER_WORD);
+            return (int) (word >>> (register % PER_WORD * BITS)) & MAX_RANK;
+        }
+
+        void set(long nodeId, int register, int rank) {
+            long index = nodeId * words + register / PER_WORD;
+            int shift = register % PER_WORD * BITS;
+            long word = array.get(index) & ~((long) MAX_RANK << shift);
+            array.set(index, word | (long) Math.min(rank, MAX_RANK) << shift);
+        }
+
+        // The node's registers, as they are in other
+        void copy(long nodeId, Counters other) {
+            long offset = nodeId * words;
+            for (int word = 0; word < words; word++) {
+                array.set(offset + word, other.array.get(offset + word));
+            }
+        }
+
+        // Raises each register of the node to that of the neighbour in other, if it is higher
+        void max(long nodeId, Counters other, long neighbour) {
+            // Nodes created after the rounds started have no counter
+            if (neighbour >= highId) {
+                return;
+            }
+            long offset = nodeId * words;
+            long others = neighbour * words;
+            for (int word = 0; word < words; word++) {
+                long mine = array.get(offset + word);
+                long theirs = other.array.get(others + word);
+                if (mine == theirs || theirs == 0) {
+                    continue;
+                }
+                long merged = 0;
+                for (int shift = 0; shift < PER_WORD * BITS; shift += BITS) {
+                    long mask = (long) MAX_RANK << shift;
+                    merged |= Math.max(mine & mask, theirs & mask);
+                }
+                array.set(offset + word, merged);
+            }
+        }
+    }
+
+    /**
+     * Sets the registers of the nodes in the id blocks [from, to) to count only the node itself.
+     */
+    static class Seed extends RecursiveAction {
+        private final Counters counters;
+        private final int precision;
+        private final long highId;
+        private final long from;
+        private final long to;
+
+        Seed(Counters counters, int precision, long highId, long from, long to) {
+            this.counters = counters;
+            this.precision = precision;
+            this.highId = highId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Seed(counters, precision, highId, from, middle), new Seed(counters, precision, highId, middle, to));
+                return;
+            }
+            long end = Math.min((from + 1) << BLOCK_SHIFT, highId);
+            for (long nodeId = from << BLOCK_SHIFT; nodeId < end; nodeId++) {
+                long hash = hash(nodeId);
+                int register = (int) (hash >>> (Long.SIZE - precision));
+                int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+                counters.set(nodeId, register, rank);
+            }
+        }
+    }
+
+    /**
+     * One round for the nodes in the id blocks [from, to): merges each node's counter with those of
+     * its neighbours into next and records the new estimate.
+     */
+    static class Round extends RecursiveAction {
+        private final GraphDatabaseService db;
+        private final Step step;
+        private final Counters counters;
+        private final Counters next;
+        private final OffHeapArray estimates;
+        private final int round;
+        private final long highId;
+        private final long from;
+        private final long to;
+
+        Round(GraphDatabaseService db, Step step, Counters counters, Counters next,
+              OffHeapArray estimates, int round, long highId, long from, long to) {
+            this.db = db;
+            this.step = step;
+            this.counters = counters;
+            this.next = next;
+            this.estimates = estimates;
+            this.round = round;
+            this.highId = highId;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Round(db, step, counters, next, estimates, round, highId, from, middle),
+                          new Round(db, step, counters, next, estimates, round, highId, middle, to));
+                return;
+            }
+
+            try (Transaction tx = db.beginTx()) {
+                DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+                final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+                KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+                CursorFactory cursors = ktx.cursors();
+                Read read = ktx.dataRead();
+
+                Expansion neighbours = new Expansion(read, cursors, step);
+
+                long end = Math.min((from + 1) << BLOCK_SHIFT, highId);
+                for (long nodeId = from << BLOCK_SHIFT; nodeId < end; nodeId++) {
+                    next.copy(nodeId, counters);
+
+                    neighbours.select(nodeId);
+                    while (neighbours.next()) {
+                        next.max(nodeId, counters, neighbours.neighbour());
+                    }
+
+                    // Don't count the node itself
+                    float estimate = (float) Math.max(0, HyperAnf.estimate(next, nodeId) - 1);
+                    estimates.set(round * highId + nodeId, Float.floatToIntBits(estimate));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of k-hop counts, bounded by number of entries and by the size of their
+ * visited sets. Each entry keeps the nodes it visited, starting node included, so that a committed
+ * relationship change only evicts the entries that could have been affected by it:
+ * a relationship with neither end visited can not change what was reachable.
+ * {@link TraversalPoolExtensionFactory} registers one with every database, along with the
+ * {@link KHopsCacheInvalidator} that evicts from it; without them nothing is cached.
+ * Only committed state is cached: a transaction with changes of its own neither reads nor fills it,
+ * so what it counted is never served to anyone else, whether it commits or rolls back.
+ */
+public class KHopsCache {
+    static final KHopsCache DISABLED = new KHopsCache(0, 0);
+
+    private final long maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong generation = new AtomicLong();
+    private long bytes;
+
+    public static class Key {
+        private final long nodeId;
+        private final long distance;
+        private final Pattern pattern;
+
+        Key(long nodeId, long distance, Pattern pattern) {
+            this.nodeId = nodeId;
+            this.distance = distance;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return nodeId == key.nodeId && distance == key.distance && pattern.equals(key.pattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeId, distance, pattern);
+        }
+    }
+
+    private static class Entry {
+        private final long count;
+        private final Roaring64NavigableMap visited;
+        private final long bytes;
+
+        Entry(long count, Roaring64NavigableMap visited) {
+            this.count = count;
+            this.visited = visited;
+            this.bytes = visited.getLongSizeInBytes();
+        }
+    }
+
+    KHopsCache(long maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    static KHopsCache create(Config config) {
+        return new KHopsCache(config.get(KHopsSettings.cache_max_entries), config.get(KHopsSettings.cache_max_bytes));
+    }
+
+    // The cache of the database, disabled when the kernel extension was not loaded into it
+    public static KHopsCache get(GraphDatabaseService db) {
+        DependencyResolver dependencies = ((GraphDatabaseAPI) db).getDependencyResolver();
+        try {
+            return dependencies.resolveDependency(KHopsCache.class, DependencyResolver.SelectionStrategy.FIRST);
+        } catch (IllegalArgumentException e) {
+            return DISABLED;
+        }
+    }
+
+    // The cache of the database as seen by the transaction, disabled while it has uncommitted changes
+    public static KHopsCache get(GraphDatabaseService db, KernelTransaction ktx) {
+        if (TraversalPool.hasChanges(ktx)) {
+            return DISABLED;
+        }
+        return get(db);
+    }
+
+    // Keyed by the types and directions each hop follows, the same relationship types given in any
+    // order and with repeats are the same traversal
+    public static Key key(long nodeId, long distance, Pattern pattern) {
+        return new Key(nodeId, distance, pattern);
+    }
+
+    public boolean enabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    public synchronized Long get(Key key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.count;
+    }
+
+    /**
+     * Taken before a traversal starts, so its result is not cached if a relationship change was
+     * committed while it was running.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public synchronized void put(Key key, long generation, long count, Roaring64NavigableMap visited) {
+        if (!enabled() || generation != this.generation.get()) {
+            return;
+        }
+        visited.runOptimize();
+        Entry entry = new Entry(count, visited);
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    // Evicts every entry that visited one of the nodes
+    public synchronized void invalidate(Roaring64NavigableMap nodes) {
+        generation.incrementAndGet();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            LongIterator changed = nodes.getLongIterator();
+            while (changed.hasNext()) {
+                if (entry.visited.contains(changed.next())) {
+                    bytes -= entry.bytes;
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+}
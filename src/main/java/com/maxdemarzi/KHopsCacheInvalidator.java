@@ -0,0 +1,48 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * Evicts the cached k-hop results that visited an end of a relationship created or deleted by a
+ * committed transaction. The ends are collected before commit, while deleted relationships can
+ * still be read.
+ */
+public class KHopsCacheInvalidator implements TransactionEventHandler<Roaring64NavigableMap> {
+    private final KHopsCache cache;
+
+    public KHopsCacheInvalidator(KHopsCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Roaring64NavigableMap beforeCommit(TransactionData data) {
+        if (!cache.enabled()) {
+            return null;
+        }
+        Roaring64NavigableMap changed = new Roaring64NavigableMap();
+        for (Relationship relationship : data.createdRelationships()) {
+            changed.add(relationship.getStartNodeId());
+            changed.add(relationship.getEndNodeId());
+        }
+        for (Relationship relationship : data.deletedRelationships()) {
+            changed.add(relationship.getStartNodeId());
+            changed.add(relationship.getEndNodeId());
+        }
+        return changed.isEmpty() ? null : changed;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Roaring64NavigableMap changed) {
+        if (changed != null) {
+            cache.invalidate(changed);
+        }
+    }
+
+    @Override
+    public void afterRollback(TransactionData data, Roaring64NavigableMap changed) {
+        // Nothing to evict, a transaction with changes never fills the cache
+    }
+}
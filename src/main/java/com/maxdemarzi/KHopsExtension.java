@@ -0,0 +1,116 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+
+import java.io.File;
+
+/**
+ * The k-hop state of one database: the limits and spill settings of its traversals, the
+ * projection and estimates loaded into it, the invalidation of its cache and the MBeans of its metrics. {@link TraversalPoolExtensionFactory} registers one with
+ * every database it is loaded into, so databases sharing a JVM never see each other's settings or
+ * loads, and stopping one leaves the others alone.
+ */
+public class KHopsExtension extends LifecycleAdapter {
+    private final GraphDatabaseService db;
+    private final Config config;
+    private final TraversalPool pool;
+    private final KHopsCache cache;
+    private final KHopsMetrics metrics;
+    private final KHopsCacheInvalidator invalidator;
+
+    private volatile long maxVisited;
+    private volatile long maxMemory;
+    private volatile long maxTime;
+    private volatile long spillThreshold;
+    private volatile File spillDirectory;
+
+    private volatile Projection projection;
+    private volatile HyperAnf anf;
+
+    KHopsExtension(GraphDatabaseService db, Config config, TraversalPool pool, KHopsCache cache, KHopsMetrics metrics) {
+        this.db = db;
+        this.config = config;
+        this.pool = pool;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.invalidator = new KHopsCacheInvalidator(cache);
+    }
+
+    /**
+     * The state of the database. Fails when the kernel extension was not loaded into it.
+     */
+    public static KHopsExtension get(GraphDatabaseService db) {
+        DependencyResolver dependencies = ((GraphDatabaseAPI) db).getDependencyResolver();
+        try {
+            return dependencies.resolveDependency(KHopsExtension.class, DependencyResolver.SelectionStrategy.FIRST);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("No k-hop state, the khops-traversal-pool kernel extension is not loaded", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        maxVisited = config.get(KHopsSettings.max_visited);
+        maxMemory = config.get(KHopsSettings.max_memory);
+        maxTime = config.get(KHopsSettings.max_time).toMillis();
+        spillThreshold = config.get(KHopsSettings.spill_threshold);
+        spillDirectory = config.get(KHopsSettings.spill_directory);
+        pool.start();
+        metrics.register(KHopsMetrics.KHOPS, KHopsMetrics.KHOPS2, KHopsMetrics.PARALLEL_KHOPS2,
+                KHopsMetrics.BATCH, KHopsMetrics.AUTO, KHopsMetrics.BITMAP);
+        db.registerTransactionEventHandler(invalidator);
+    }
+
+    @Override
+    public void stop() {
+        db.unregisterTransactionEventHandler(invalidator);
+        metrics.unregister();
+        cache.clear();
+        pool.stop();
+        projection = null;
+        anf = null;
+    }
+
+    // Instance wide limits of a traversal, 0 meaning no limit
+    long maxVisited() {
+        return maxVisited;
+    }
+
+    long maxMemory() {
+        return maxMemory;
+    }
+
+    long maxTime() {
+        return maxTime;
+    }
+
+    // Heap the sets of a traversal may take before they spill, 0 meaning they never do
+    long spillThreshold() {
+        return spillThreshold;
+    }
+
+    // Where spilled sets are mapped, null for the temporary directory
+    File spillDirectory() {
+        return spillDirectory;
+    }
+
+    public Projection projection() {
+        return projection;
+    }
+
+    void projection(Projection projection) {
+        this.projection = projection;
+    }
+
+    public HyperAnf anf() {
+        return anf;
+    }
+
+    void anf(HyperAnf anf) {
+        this.anf = anf;
+    }
+}
@@ -0,0 +1,202 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of every k-hop engine of one database since it started.
+ * Recording a call is a handful of uncontended adds. {@link TraversalPoolExtensionFactory} registers
+ * one with every database; they are read by {@code com.maxdemarzi.khops.metrics()} and over JMX as
+ * {@code com.maxdemarzi.khops:type=Metrics,database=<database directory>,engine=<engine>}.
+ */
+public class KHopsMetrics {
+    static final String DOMAIN = "com.maxdemarzi.khops";
+
+    public static final String KHOPS = "khops";
+    public static final String KHOPS2 = "khops2";
+    public static final String PARALLEL_KHOPS2 = "parallel.khops2";
+    public static final String BATCH = "khops.batch";
+    public static final String AUTO = "khops.auto";
+    public static final String BITMAP = "khops.bitmap";
+    // Profiled, never metered
+    public static final String STREAM = "khops.stream";
+
+    // Quoted directory of the database, which tells apart the MBeans of databases sharing a JVM
+    private final String database;
+    private final Map<String, Engine> engines = new ConcurrentSkipListMap<>();
+    private final Map<String, ObjectName> registered = new ConcurrentHashMap<>();
+
+    public interface EngineMBean {
+        long getCalls();
+        long getCacheHits();
+        long getPartial();
+        long getVisited();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP90Millis();
+        double getP99Millis();
+        double getMaxMillis();
+    }
+
+    public static class Engine implements EngineMBean {
+        // Bucket i holds the calls that took [2^(i-1), 2^i) microseconds
+        private final AtomicLongArray histogram = new AtomicLongArray(Long.SIZE);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder partial = new LongAdder();
+        private final LongAdder visited = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long elapsed, long count, boolean cached, boolean stopped) {
+            calls.increment();
+            if (cached) {
+                cacheHits.increment();
+            }
+            if (stopped) {
+                partial.increment();
+            }
+            visited.add(count);
+            nanos.add(elapsed);
+            max.accumulate(elapsed);
+            histogram.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(elapsed / 1_000));
+        }
+
+        @Override
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        @Override
+        public long getPartial() {
+            return partial.sum();
+        }
+
+        @Override
+        public long getVisited() {
+            return visited.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long count = calls.sum();
+            return count == 0 ? 0 : nanos.sum() / 1_000_000.0 / count;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentile(0.50);
+        }
+
+        @Override
+        public double getP90Millis() {
+            return percentile(0.90);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return max.get() / 1_000_000.0;
+        }
+
+        // Upper bound of the bucket the percentile falls in, never more than the slowest call
+        double percentile(double percentile) {
+            long[] buckets = new long[histogram.length()];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.get(i);
+                total += buckets[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min((1L << i) / 1_000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+
+    KHopsMetrics(String database) {
+        this.database = ObjectName.quote(database);
+    }
+
+    /**
+     * The metrics of the database. Fails when the kernel extension was not loaded into it.
+     */
+    public static KHopsMetrics get(GraphDatabaseService db) {
+        DependencyResolver dependencies = ((GraphDatabaseAPI) db).getDependencyResolver();
+        try {
+            return dependencies.resolveDependency(KHopsMetrics.class, DependencyResolver.SelectionStrategy.FIRST);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("No k-hop metrics, the khops-traversal-pool kernel extension is not loaded", e);
+        }
+    }
+
+    public Engine engine(String name) {
+        return engines.computeIfAbsent(name, n -> new Engine());
+    }
+
+    public void record(String engine, long started, long count, boolean cached, boolean stopped) {
+        engine(engine).record(System.nanoTime() - started, count, cached, stopped);
+    }
+
+    public Map<String, Engine> engines() {
+        return engines;
+    }
+
+    // Starts counting from zero, and exposes the engines over JMX
+    synchronized void register(String... names) {
+        engines.clear();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String name : names) {
+            try {
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,database=" + database + ",engine=" + name);
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(new StandardMBean(engine(name), EngineMBean.class), objectName);
+                }
+                registered.put(name, objectName);
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register k-hop metrics of " + name, e);
+            }
+        }
+    }
+
+    synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered.values()) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                // Already gone
+            }
+        }
+        registered.clear();
+    }
+}
@@ -0,0 +1,65 @@
+package com.maxdemarzi;
+
+import org.neo4j.configuration.Description;
+import org.neo4j.configuration.LoadableConfig;
+import org.neo4j.graphdb.config.Setting;
+
+import java.io.File;
+import java.time.Duration;
+
+import static org.neo4j.kernel.configuration.Settings.BYTES;
+import static org.neo4j.kernel.configuration.Settings.DURATION;
+import static org.neo4j.kernel.configuration.Settings.INTEGER;
+import static org.neo4j.kernel.configuration.Settings.LONG;
+import static org.neo4j.kernel.configuration.Settings.NO_DEFAULT;
+import static org.neo4j.kernel.configuration.Settings.PATH;
+import static org.neo4j.kernel.configuration.Settings.optionsIgnoreCase;
+import static org.neo4j.kernel.configuration.Settings.setting;
+
+public class KHopsSettings implements LoadableConfig {
+
+    @Description("Number of worker threads shared by all parallel k-hop traversals. 0 means one per available processor.")
+    public static final Setting<Integer> parallelism = setting("com.maxdemarzi.khops.parallelism", INTEGER, "0");
+
+    @Description("Maximum number of parallel k-hop traversals admitted to the worker pool at the same time. 0 means the same as the parallelism.")
+    public static final Setting<Integer> max_concurrent_queries = setting("com.maxdemarzi.khops.max_concurrent_queries", INTEGER, "0");
+
+    @Description("How long a parallel k-hop traversal waits to be admitted before it runs on the calling thread instead.")
+    public static final Setting<Duration> admission_timeout = setting("com.maxdemarzi.khops.admission_timeout", DURATION, "1s");
+
+    @Description("Number of frontier nodes a single expansion task handles before it is split in two for other workers to steal.")
+    public static final Setting<Integer> chunk_size = setting("com.maxdemarzi.khops.chunk_size", INTEGER, "1024");
+
+    @Description("Nodes with more relationships than this are expanded by one task per relationship type and direction, and an expansion task that has read this many relationships leaves the rest of its frontier nodes to other workers.")
+    public static final Setting<Long> split_degree = setting("com.maxdemarzi.khops.split_degree", LONG, "65536");
+
+    public static final String PARTITIONED = "partitioned";
+    public static final String SHARED = "shared";
+
+    @Description("How the workers of a parallel k-hop traversal remove duplicates. partitioned: every worker sorts the neighbours it finds by the shard of the seen set that owns them, and each shard merges them after every hop. shared: every worker claims the neighbours it finds in one lock-free seen set as it goes, which costs a bit per node in the store for each traversal.")
+    public static final Setting<String> frontier = setting("com.maxdemarzi.khops.frontier", optionsIgnoreCase(PARTITIONED, SHARED), PARTITIONED);
+
+    @Description("Relationships a hop of com.maxdemarzi.khops.auto is expected to read before it runs on the worker pool instead of the calling thread.")
+    public static final Setting<Long> auto_parallel_threshold = setting("com.maxdemarzi.khops.auto.parallel_threshold", LONG, "100000");
+
+    @Description("Maximum number of k-hop results kept in the cache. 0 disables the cache.")
+    public static final Setting<Long> cache_max_entries = setting("com.maxdemarzi.khops.cache.max_entries", LONG, "10000");
+
+    @Description("Maximum size of the visited sets kept by the k-hop result cache.")
+    public static final Setting<Long> cache_max_bytes = setting("com.maxdemarzi.khops.cache.max_bytes", BYTES, "256m");
+
+    @Description("Maximum number of nodes a single k-hop traversal may visit before it stops and returns a partial count. 0 means no limit.")
+    public static final Setting<Long> max_visited = setting("com.maxdemarzi.khops.limits.max_visited", LONG, "0");
+
+    @Description("Maximum size of the bitmaps of a single k-hop traversal before it stops and returns a partial count. 0 means no limit.")
+    public static final Setting<Long> max_memory = setting("com.maxdemarzi.khops.limits.max_memory", BYTES, "0");
+
+    @Description("Maximum time a single k-hop traversal may run before it stops and returns a partial count. 0 means no limit.")
+    public static final Setting<Duration> max_time = setting("com.maxdemarzi.khops.limits.max_time", DURATION, "0s");
+
+    @Description("Heap the visited sets, frontiers and worker outboxes of a single k-hop traversal may take together before the largest of them move to bitsets in memory mapped files. 0 means never.")
+    public static final Setting<Long> spill_threshold = setting("com.maxdemarzi.khops.spill.threshold", BYTES, "0");
+
+    @Description("Directory of the memory mapped files of spilled visited sets. The system temporary directory when not set.")
+    public static final Setting<File> spill_directory = setting("com.maxdemarzi.khops.spill.directory", PATH, NO_DEFAULT);
+}
@@ -0,0 +1,128 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.*;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which nodes a traversal expands and which it counts, by label. The nodes of each list of labels
+ * are read once per call from the label scan store into a set, and every frontier is cut down to
+ * the nodes it may expand before the hop starts, so nodes that are pruned are still counted when
+ * reached but their relationships are never read. The start node is always expanded.
+ * Filters are given as a map of lists of label names, a node matching any label of a list:
+ * <ul>
+ *     <li>{@code through}: only nodes with one of these labels are expanded</li>
+ *     <li>{@code notThrough}: nodes with one of these labels are never expanded</li>
+ *     <li>{@code count}: only nodes with one of these labels are counted</li>
+ * </ul>
+ */
+public final class LabelFilter {
+    public static final String THROUGH = "through";
+    public static final String NOT_THROUGH = "notThrough";
+    public static final String COUNT = "count";
+
+    // null when the filter doesn't restrict it
+    private final NodeSet through;
+    private final NodeSet notThrough;
+    private final NodeSet count;
+
+    private LabelFilter(NodeSet through, NodeSet notThrough, NodeSet count) {
+        this.through = through;
+        this.notThrough = notThrough;
+        this.count = count;
+    }
+
+    /**
+     * The filter of a call, null when the filters are empty so the traversal does not pay for it.
+     */
+    public static LabelFilter of(Read read, TokenRead tokenRead, CursorFactory cursors, long highId,
+                                 Map<String, Object> filters) {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        NodeSet through = null;
+        NodeSet notThrough = null;
+        NodeSet count = null;
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            if (!(filter.getValue() instanceof List)) {
+                throw new IllegalArgumentException("Filter " + filter.getKey() + " must be a list of labels");
+            }
+            NodeSet nodes = labelled(read, tokenRead, cursors, highId, (List<?>) filter.getValue());
+            switch (filter.getKey()) {
+                case THROUGH:
+                    through = nodes;
+                    break;
+                case NOT_THROUGH:
+                    notThrough = nodes;
+                    break;
+                case COUNT:
+                    count = nodes;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown filter " + filter.getKey() + ", expected through, notThrough or count");
+            }
+        }
+        return new LabelFilter(through, notThrough, count);
+    }
+
+    // Every node with one of the labels, from the label scan store
+    private static NodeSet labelled(Read read, TokenRead tokenRead, CursorFactory cursors, long highId, List<?> labels) {
+        NodeSet nodes = NodeSet.sparse(highId);
+        NodeLabelIndexCursor cursor = cursors.allocateNodeLabelIndexCursor();
+        for (Object label : labels) {
+            // A label no node ever had matches nothing
+            int id = tokenRead.nodeLabel(String.valueOf(label));
+            if (id == TokenRead.NO_TOKEN) {
+                continue;
+            }
+            read.nodeLabelScan(id, cursor);
+            while (cursor.next()) {
+                nodes.add(cursor.nodeReference());
+            }
+        }
+        cursor.close();
+        nodes.adapt();
+        return nodes;
+    }
+
+    // Leaves in the frontier only the nodes that may be expanded
+    public void prune(NodeSet frontier) {
+        if (through != null) {
+            frontier.and(through);
+        }
+        if (notThrough != null) {
+            frontier.andNot(notThrough);
+        }
+    }
+
+    public boolean expands(long nodeId) {
+        return (through == null || through.contains(nodeId)) && (notThrough == null || !notThrough.contains(nodeId));
+    }
+
+    /**
+     * The nodes seen that are counted, without the start node.
+     */
+    public long count(NodeSet seen, long startNode) {
+        if (count == null) {
+            return seen.cardinality() - 1;
+        }
+        return seen.andCardinality(count) - (count.contains(startNode) ? 1 : 0);
+    }
+
+    public long count(Roaring64NavigableMap seen, long startNode) {
+        if (count == null) {
+            return seen.getLongCardinality() - 1;
+        }
+        long counted = 0;
+        LongIterator iterator = seen.getLongIterator();
+        while (iterator.hasNext()) {
+            if (count.contains(iterator.next())) {
+                counted++;
+            }
+        }
+        return counted - (count.contains(startNode) ? 1 : 0);
+    }
+}
@@ -0,0 +1,66 @@
+package com.maxdemarzi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size array of longs held in a memory mapped temporary file, so the OS page cache rather
+ * than the heap holds it. The file is sparse, pages never written take no room, and it is deleted
+ * as soon as it is mapped; the room it takes is given back once the array is garbage collected.
+ * A single mapping can not hold more than 2GB, so the array is split into pages like {@link OffHeapArray}.
+ */
+public class MappedLongArray {
+    private static final int PAGE_SHIFT = 24;
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+
+    private final long length;
+    private final LongBuffer[] pages;
+
+    public MappedLongArray(File directory, long length) {
+        this.length = length;
+        int count = (int) ((length + PAGE_MASK) >>> PAGE_SHIFT);
+        this.pages = new LongBuffer[count];
+        File file = null;
+        try {
+            file = File.createTempFile("khops-", ".bits", directory);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length * Long.BYTES);
+                FileChannel channel = raf.getChannel();
+                for (int p = 0; p < count; p++) {
+                    long start = (long) p << PAGE_SHIFT;
+                    long size = Math.min(length - start, 1L << PAGE_SHIFT);
+                    pages[p] = channel.map(FileChannel.MapMode.READ_WRITE, start * Long.BYTES, size * Long.BYTES)
+                            .order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map a visited set of " + length * Long.BYTES + " bytes to " + directory, e);
+        } finally {
+            // The mappings outlive the file on every platform that allows deleting it
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    public long get(long index) {
+        return pages[(int) (index >>> PAGE_SHIFT)].get((int) (index & PAGE_MASK));
+    }
+
+    public void set(long index, long value) {
+        pages[(int) (index >>> PAGE_SHIFT)].put((int) (index & PAGE_MASK), value);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long bytes() {
+        return length * Long.BYTES;
+    }
+}
@@ -0,0 +1,123 @@
+package com.maxdemarzi;
+
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-source k-hop counting in the style of MS-BFS (Then et al.).
+ * Up to 64 starting nodes are traversed together: every node reached carries one bit per source,
+ * so a node's relationships are read once per hop for all the sources that reached it.
+ * Larger lists are split into batches of 64 that run in parallel.
+ */
+public class MultiSourceHops extends RecursiveAction {
+    static final int WIDTH = Long.SIZE;
+
+    private final GraphDatabaseService db;
+    private final Log log;
+    private final long[] sources;
+    private final int from;
+    private final int to;
+    private final long distance;
+    private final Step step;
+    private final long[] counts;
+
+    public MultiSourceHops(GraphDatabaseService db, Log log, long[] sources, int from, int to, long distance,
+                           Step step, long[] counts) {
+        this.db = db;
+        this.log = log;
+        this.sources = sources;
+        this.from = from;
+        this.to = to;
+        this.distance = distance;
+        this.step = step;
+        this.counts = counts;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > WIDTH) {
+            // Split on a batch boundary
+            int middle = from + ((to - from) / WIDTH / 2) * WIDTH;
+            if (middle == from) {
+                middle += WIDTH;
+            }
+            invokeAll(new MultiSourceHops(db, log, sources, from, middle, distance, step, counts),
+                      new MultiSourceHops(db, log, sources, middle, to, distance, step, counts));
+            return;
+        }
+
+        try (Transaction tx = db.beginTx()) {
+            DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+            count(ktx.dataRead(), ktx.cursors(), sources, from, to, distance, step, counts, null);
+        }
+    }
+
+    /**
+     * Counts the nodes within distance of each of sources[from, to), at most 64 of them,
+     * into the same positions of counts. A profiled hop counts the nodes reached by any of the sources.
+     */
+    static void count(Read read, CursorFactory cursors, long[] sources, int from, int to, long distance,
+                      Step step, long[] counts, TraversalProfile profile) {
+        LongLongHashMap seen = new LongLongHashMap();
+        LongLongHashMap visit = new LongLongHashMap();
+
+        for (int i = from; i < to; i++) {
+            long bit = 1L << (i - from);
+            seen.put(sources[i], seen.get(sources[i]) | bit);
+            visit.put(sources[i], visit.get(sources[i]) | bit);
+        }
+
+        Expansion neighbours = new Expansion(read, cursors, step);
+
+        for (int hop = 0; hop < distance && !visit.isEmpty(); hop++) {
+            TraversalProfile.Hop profiled = profile == null ? null : profile.next(TraversalProfile.TOP_DOWN, visit.size());
+            long started = System.nanoTime();
+            // Expand every node once, for all the sources that reached it
+            final LongLongHashMap next = new LongLongHashMap();
+            final long[] relationships = new long[1];
+            visit.forEachKeyValue((nodeId, bits) -> {
+                neighbours.select(nodeId);
+                while (neighbours.next()) {
+                    long neighbour = neighbours.neighbour();
+                    next.put(neighbour, next.get(neighbour) | bits);
+                    relationships[0]++;
+                }
+            });
+            long expanded = System.nanoTime();
+
+            // Keep only the sources seeing each node for the first time
+            final LongLongHashMap fresh = new LongLongHashMap();
+            next.forEachKeyValue((nodeId, bits) -> {
+                long seenBits = seen.get(nodeId);
+                long newBits = bits & ~seenBits;
+                if (newBits != 0) {
+                    seen.put(nodeId, seenBits | newBits);
+                    fresh.put(nodeId, newBits);
+                    while (newBits != 0) {
+                        counts[from + Long.numberOfTrailingZeros(newBits)]++;
+                        newBits &= newBits - 1;
+                    }
+                }
+            });
+            visit = fresh;
+            if (profiled != null) {
+                profiled.expanded(expanded - started, relationships[0]);
+                profiled.worked(expanded - started);
+                // Keys and values of the maps, without their free slots
+                profiled.merged(System.nanoTime() - expanded, fresh.size(),
+                        (long) (seen.size() + next.size() + fresh.size()) * 2 * Long.BYTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.HopResult;
+import org.neo4j.internal.kernel.api.*;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Walks the k-hop neighbourhood one hop at a time, only computing the next hop once every node
+ * of the current one has been consumed. Besides the seen set only the current hop is held.
+ * With nodes it returns one row per node with its hop and the size of that hop,
+ * without them one row per hop with just its size.
+ */
+public class NeighbourhoodIterator implements Iterator<HopResult> {
+    private final Read read;
+    private final CursorFactory cursors;
+    private final Step step;
+    private final long distance;
+    private final boolean withNodes;
+    private final DirectionOptimizer optimizer;
+    private final Expansion neighbours;
+    private final TraversalProfile profile;
+    // No limits, only the spill threshold
+    private final TraversalBudget budget;
+
+    private final long highId;
+    private final NodeSet seen;
+    private NodeSet current;
+    private PrimitiveIterator.OfLong nodes;
+    private boolean pending;
+    private long hop;
+    private long count;
+
+    public NeighbourhoodIterator(Read read, CursorFactory cursors, long nodeId, long distance, Step step, boolean withNodes,
+                                 long highId, TraversalBudget budget, TraversalProfile profile) {
+        this.read = read;
+        this.cursors = cursors;
+        this.step = step;
+        this.distance = distance;
+        this.withNodes = withNodes;
+        this.optimizer = new DirectionOptimizer(read, step);
+        this.neighbours = new Expansion(read, cursors, step);
+        this.profile = profile;
+        this.budget = budget;
+        this.highId = highId;
+        this.seen = NodeSet.sparse(highId);
+        this.current = NodeSet.sparse(highId);
+
+        seen.add(nodeId);
+        current.add(nodeId);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (withNodes ? nodes == null || !nodes.hasNext() : !pending) {
+            if (hop >= distance || current.isEmpty()) {
+                return false;
+            }
+            nextHop();
+        }
+        return true;
+    }
+
+    @Override
+    public HopResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (withNodes) {
+            return new HopResult(nodes.nextLong(), hop, count);
+        }
+        pending = false;
+        return new HopResult(null, hop, count);
+    }
+
+    private void nextHop() {
+        NodeSet next = NodeSet.sparse(highId);
+        boolean bottomUp = optimizer.bottomUp(current.cardinality(), seen.cardinality());
+        TraversalProfile.Hop profiled = profile == null ? null
+                : profile.next(bottomUp ? TraversalProfile.BOTTOM_UP : TraversalProfile.TOP_DOWN, current.cardinality());
+        long started = System.nanoTime();
+        Long relationships = null;
+
+        if (bottomUp) {
+            BottomUp.scan(read, cursors, seen, current, next, step, budget);
+        } else {
+            long scanned = 0;
+            PrimitiveIterator.OfLong iterator = current.iterator();
+            while (iterator.hasNext()) {
+                neighbours.select(iterator.nextLong());
+                while (neighbours.next()) {
+                    next.add(neighbours.neighbour());
+                    scanned++;
+                }
+            }
+            optimizer.scanned(current.cardinality(), scanned);
+            relationships = scanned;
+        }
+        long expanded = System.nanoTime();
+
+        if (!bottomUp) {
+            next.andNot(seen);
+        }
+        seen.or(next);
+        seen.adapt();
+        next.adapt();
+        budget.spill(seen, next);
+        current = next;
+        if (profiled != null) {
+            profiled.expanded(expanded - started, relationships);
+            profiled.worked(expanded - started);
+            profiled.merged(System.nanoTime() - expanded, current.cardinality(), seen.bytes() + current.bytes());
+        }
+        hop++;
+        count = current.cardinality();
+        nodes = current.iterator();
+        pending = true;
+    }
+}
@@ -3,37 +3,69 @@ package com.maxdemarzi;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.*;
 import org.neo4j.internal.kernel.api.*;
-import org.neo4j.internal.kernel.api.helpers.RelationshipSelectionCursor;
-import org.neo4j.internal.kernel.api.helpers.RelationshipSelections;
 import org.neo4j.kernel.api.KernelTransaction;
 import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
-import org.roaringbitmap.longlong.Roaring64NavigableMap;
 
-import java.util.concurrent.Phaser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
-public class NextHop implements Runnable {
+/**
+ * Expands a slice of the frontier into an outbox of its own, which either sorts the neighbours
+ * found by frontier shard or claims them in the visited set shared by every worker.
+ */
+public class NextHop extends RecursiveTask<Outbox> {
     private final GraphDatabaseService db;
     private final Log log;
-    private final Roaring64NavigableMap next;
-    private final Roaring64NavigableMap current;
-    private final int[] types;
-    private Phaser ph;
+    private final long[] current;
+    private final int from;
+    private final int to;
+    private final Step step;
+    private final Supplier<Outbox> outboxes;
+    private final int chunkSize;
+    private final long splitDegree;
+    private final LongAdder scanned;
+    private final TraversalBudget budget;
+    private final TraversalProfile.Hop hop;
 
-    public NextHop(GraphDatabaseService db, Log log, Roaring64NavigableMap next,
-                   Roaring64NavigableMap current, int[] types, Phaser ph) {
+    public NextHop(GraphDatabaseService db, Log log, long[] current, int from, int to, Step step,
+                   Supplier<Outbox> outboxes, int chunkSize, long splitDegree, LongAdder scanned, TraversalBudget budget,
+                   TraversalProfile.Hop hop) {
         this.db = db;
         this.log = log;
-        this.next = next;
         this.current = current;
-        this.types = types;
-        this.ph = ph;
-        ph.register();
+        this.from = from;
+        this.to = to;
+        this.step = step;
+        this.outboxes = outboxes;
+        this.chunkSize = chunkSize;
+        this.splitDegree = splitDegree;
+        this.scanned = scanned;
+        this.budget = budget;
+        this.hop = hop;
     }
 
     @Override
-    public void run() {
+    protected Outbox compute() {
+        // Split until the chunk is small enough, leaving the other half for idle workers to steal
+        if (to - from > chunkSize) {
+            int middle = (from + to) >>> 1;
+            NextHop left = new NextHop(db, log, current, from, middle, step, outboxes, chunkSize, splitDegree, scanned, budget, hop);
+            left.fork();
+            Outbox next = new NextHop(db, log, current, middle, to, step, outboxes, chunkSize, splitDegree, scanned, budget, hop).compute();
+            budget.merge(next, left.join());
+            return next;
+        }
+
+        long started = hop == null ? 0 : System.nanoTime();
+        Outbox next = budget.open(outboxes);
+        // Dense nodes and the nodes left over after a lot of reading, for other workers
+        List<DenseExpansion> chains = new ArrayList<>();
+        NextHop rest = null;
         try(Transaction tx = db.beginTx()) {
             DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
             final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
@@ -41,26 +73,60 @@ public class NextHop implements Runnable {
             CursorFactory cursors = ktx.cursors();
             Read read = ktx.dataRead();
 
-            RelationshipTraversalCursor rels = cursors.allocateRelationshipTraversalCursor();
+            Expansion expansion = new Expansion(read, cursors, step);
+            RelationshipGroupCursor groups = cursors.allocateRelationshipGroupCursor();
             NodeCursor nodeCursor = cursors.allocateNodeCursor();
+            long relationships = 0;
 
-            current.forEach(l -> {
-                read.singleNode(l,nodeCursor);
+            for (int i = from; i < to; i++) {
+                // Checked before the first node too, so the tasks left over once the budget is exhausted end at once
+                if ((i - from) % TraversalBudget.CHECK_INTERVAL == 0 && !withinBudget(budget, next)) {
+                    break;
+                }
+                read.singleNode(current[i], nodeCursor);
                 nodeCursor.next();
 
-                if (types.length == 0) {
-                    nodeCursor.allRelationships(rels);
-                    while (rels.next()) {
-                        next.add(rels.neighbourNodeReference());
-                    }
-                } else {
-                    RelationshipSelectionCursor typedRels = RelationshipSelections.allCursor(cursors, nodeCursor, types);
-                    while (typedRels.next()) {
-                        next.add(typedRels.otherNodeReference());
-                    }
+                // Only dense nodes can have more relationships than their groups make cheap to count
+                if (nodeCursor.isDense() && DenseExpansion.degree(nodeCursor, groups, step) > splitDegree) {
+                    chains.addAll(DenseExpansion.split(db, nodeCursor, groups, step, outboxes, scanned, budget, hop));
+                    continue;
+                }
+
+                expansion.select(nodeCursor);
+                while (expansion.next()) {
+                    next.add(expansion.neighbour());
+                    relationships++;
+                }
+
+                // This slice was heavier than its node count suggested, let idle workers take the rest of it
+                if (relationships > splitDegree && i + 1 < to) {
+                    rest = new NextHop(db, log, current, i + 1, to, step, outboxes, chunkSize, splitDegree, scanned, budget, hop);
+                    break;
                 }
-            });
+            }
+            scanned.add(relationships);
         }
-        ph.arriveAndDeregister();
+        if (hop != null) {
+            hop.worked(System.nanoTime() - started);
+        }
+
+        // Forked only once this task's transaction is closed, a worker may run them while waiting for them
+        if (rest != null) {
+            rest.fork();
+        }
+        invokeAll(chains);
+        for (DenseExpansion chain : chains) {
+            budget.merge(next, chain.join());
+        }
+        if (rest != null) {
+            budget.merge(next, rest.join());
+        }
+        return next;
+    }
+
+    // What one task alone knows of, a lower bound of what the traversal holds
+    static boolean withinBudget(TraversalBudget budget, Outbox next) {
+        budget.spill(next);
+        return budget.check(next.visited(), next.bytes());
     }
 }
@@ -0,0 +1,20 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+final class NodeIds {
+
+    private NodeIds() {
+    }
+
+    // One past the highest node id ever handed out, every node id in use is below it
+    static long highId(GraphDatabaseService db) {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        IdGeneratorFactory idGeneratorFactory = dependencyResolver.resolveDependency(IdGeneratorFactory.class, DependencyResolver.SelectionStrategy.FIRST);
+        return idGeneratorFactory.get(IdType.NODE).getHighId();
+    }
+}
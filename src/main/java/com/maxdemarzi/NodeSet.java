@@ -0,0 +1,815 @@
+package com.maxdemarzi;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Set of node ids for the seen sets and frontiers of a traversal, held in whichever representation
+ * suits the id space and how much of it the set covers:
+ * a 32-bit {@link RoaringBitmap} when every node id fits in 32 bits, which is nearly always,
+ * a {@link Roaring64NavigableMap} when they do not, and a flat bitset over the whole id space
+ * once the set holds more than one id in {@link #DENSE_RATIO}. From that density on Roaring's
+ * containers take as much room as a bit per id, and the bitset answers without container lookups.
+ * {@link #adapt()} switches to the bitset in the middle of a traversal, when the frontier explodes.
+ * {@link #spill(Collection, long)} moves the largest sets of a traversal to bitsets in memory mapped
+ * files instead, once together they take more heap than its {@link TraversalBudget} allows, leaving
+ * them to the page cache. The directory of those files is a setting of the database the traversal
+ * runs against, so it is handed over by the budget with every spill.
+ */
+public final class NodeSet {
+    static final int DENSE_RATIO = 16;
+
+    public enum Kind { ROARING_32, ROARING_64, DENSE, MAPPED }
+
+    private final long highId;
+    private Store store;
+
+    private NodeSet(long highId, Store store) {
+        this.highId = highId;
+        this.store = store;
+    }
+
+    // The compressed representation that fits ids below highId
+    public static NodeSet sparse(long highId) {
+        return create(highId <= 1L << Integer.SIZE ? Kind.ROARING_32 : Kind.ROARING_64, highId);
+    }
+
+    public static NodeSet create(Kind kind, long highId) {
+        switch (kind) {
+            case ROARING_32:
+                return new NodeSet(highId, new Roaring32());
+            case ROARING_64:
+                return new NodeSet(highId, new Roaring64());
+            case DENSE:
+                return new NodeSet(highId, new Dense(highId));
+            default:
+                return new NodeSet(highId, new Mapped(null, highId));
+        }
+    }
+
+    public Kind kind() {
+        return store.kind();
+    }
+
+    /**
+     * Moves to the flat bitset once the set is dense enough for it to cost no more than Roaring.
+     * Returns true if the set is held as a bitset, on the heap or spilled.
+     */
+    public boolean adapt() {
+        if (store.kind() == Kind.MAPPED) {
+            return true;
+        }
+        if (store.kind() != Kind.DENSE && store.cardinality() * DENSE_RATIO > highId) {
+            Dense dense = new Dense(highId);
+            dense.or(store);
+            store = dense;
+        }
+        return store.kind() == Kind.DENSE;
+    }
+
+    // Moves to a memory mapped bitset in the directory, null for the temporary one, where the set takes no heap
+    public void spill(File directory) {
+        if (store.kind() != Kind.MAPPED) {
+            Mapped mapped = new Mapped(directory, highId);
+            mapped.or(store);
+            store = mapped;
+        }
+    }
+
+    /**
+     * Spills the largest of the sets to the directory until those left on the heap take no more than
+     * bytes together. Returns the heap they take.
+     */
+    static long spill(Collection<NodeSet> sets, long bytes, File directory) {
+        NodeSet[] held = sets.toArray(new NodeSet[0]);
+        long[] sizes = new long[held.length];
+        long heap = 0;
+        for (int i = 0; i < held.length; i++) {
+            sizes[i] = held[i].heapBytes();
+            heap += sizes[i];
+        }
+        while (heap > bytes) {
+            int largest = 0;
+            for (int i = 1; i < held.length; i++) {
+                if (sizes[i] > sizes[largest]) {
+                    largest = i;
+                }
+            }
+            held[largest].spill(directory);
+            heap -= sizes[largest];
+            sizes[largest] = 0;
+        }
+        return heap;
+    }
+
+    public void add(long nodeId) {
+        store.add(nodeId);
+    }
+
+    public boolean contains(long nodeId) {
+        return store.contains(nodeId);
+    }
+
+    // A set taking in a spilled one spills too, rather than pull it back onto the heap
+    public void or(NodeSet other) {
+        if (other.store.kind() == Kind.MAPPED) {
+            spill(((Mapped) other.store).directory);
+        }
+        store.or(other.store);
+    }
+
+    public void andNot(NodeSet other) {
+        store = store.andNot(other.store);
+    }
+
+    public void and(NodeSet other) {
+        store = store.and(other.store);
+    }
+
+    public void clear() {
+        store.clear();
+    }
+
+    // Size of the intersection, without building it
+    public long andCardinality(NodeSet other) {
+        if (store instanceof Roaring32 && other.store instanceof Roaring32) {
+            return RoaringBitmap.andCardinality(((Roaring32) store).bitmap, ((Roaring32) other.store).bitmap);
+        }
+        NodeSet smaller = cardinality() <= other.cardinality() ? this : other;
+        NodeSet larger = smaller == this ? other : this;
+        long count = 0;
+        PrimitiveIterator.OfLong iterator = smaller.iterator();
+        while (iterator.hasNext()) {
+            if (larger.contains(iterator.nextLong())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return store.cardinality() == 0;
+    }
+
+    public long cardinality() {
+        return store.cardinality();
+    }
+
+    public long bytes() {
+        return store.bytes();
+    }
+
+    // What the set takes of the heap, nothing once spilled
+    public long heapBytes() {
+        return store.kind() == Kind.MAPPED ? 0 : store.bytes();
+    }
+
+    public PrimitiveIterator.OfLong iterator() {
+        return store.iterator();
+    }
+
+    public long[] toArray() {
+        long[] ids = new long[(int) store.cardinality()];
+        PrimitiveIterator.OfLong iterator = store.iterator();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = iterator.nextLong();
+        }
+        return ids;
+    }
+
+    // For the cache and the callers that keep the nodes, whatever the representation
+    public Roaring64NavigableMap toRoaring64() {
+        if (store instanceof Roaring64) {
+            return ((Roaring64) store).bitmap;
+        }
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        PrimitiveIterator.OfLong iterator = store.iterator();
+        while (iterator.hasNext()) {
+            bitmap.addLong(iterator.nextLong());
+        }
+        return bitmap;
+    }
+
+    // The nodes of a bitmap built elsewhere, ids at or above highId are not nodes and left out
+    public static NodeSet of(Roaring64NavigableMap bitmap, long highId) {
+        NodeSet nodes = sparse(highId);
+        LongIterator iterator = bitmap.getLongIterator();
+        while (iterator.hasNext()) {
+            long nodeId = iterator.next();
+            if (nodeId >= 0 && nodeId < highId) {
+                nodes.add(nodeId);
+            }
+        }
+        nodes.adapt();
+        return nodes;
+    }
+
+    private interface Store {
+        Kind kind();
+
+        void add(long nodeId);
+
+        boolean contains(long nodeId);
+
+        void or(Store other);
+
+        // May answer with a new store when the result is better held in another one
+        Store andNot(Store other);
+
+        Store and(Store other);
+
+        void clear();
+
+        long cardinality();
+
+        long bytes();
+
+        PrimitiveIterator.OfLong iterator();
+    }
+
+    private static final class Roaring32 implements Store {
+        private RoaringBitmap bitmap = new RoaringBitmap();
+
+        @Override
+        public Kind kind() {
+            return Kind.ROARING_32;
+        }
+
+        @Override
+        public void add(long nodeId) {
+            bitmap.add((int) nodeId);
+        }
+
+        @Override
+        public boolean contains(long nodeId) {
+            return nodeId >>> Integer.SIZE == 0 && bitmap.contains((int) nodeId);
+        }
+
+        @Override
+        public void or(Store other) {
+            if (other instanceof Roaring32) {
+                bitmap.or(((Roaring32) other).bitmap);
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    add(iterator.nextLong());
+                }
+            }
+        }
+
+        @Override
+        public Store andNot(Store other) {
+            if (other instanceof Roaring32) {
+                bitmap.andNot(((Roaring32) other).bitmap);
+            } else {
+                RoaringBitmap kept = new RoaringBitmap();
+                PeekableIntIterator iterator = bitmap.getIntIterator();
+                while (iterator.hasNext()) {
+                    int nodeId = iterator.next();
+                    if (!other.contains(Integer.toUnsignedLong(nodeId))) {
+                        kept.add(nodeId);
+                    }
+                }
+                bitmap = kept;
+            }
+            return this;
+        }
+
+        @Override
+        public Store and(Store other) {
+            if (other instanceof Roaring32) {
+                bitmap.and(((Roaring32) other).bitmap);
+            } else {
+                RoaringBitmap kept = new RoaringBitmap();
+                PeekableIntIterator iterator = bitmap.getIntIterator();
+                while (iterator.hasNext()) {
+                    int nodeId = iterator.next();
+                    if (other.contains(Integer.toUnsignedLong(nodeId))) {
+                        kept.add(nodeId);
+                    }
+                }
+                bitmap = kept;
+            }
+            return this;
+        }
+
+        @Override
+        public void clear() {
+            bitmap.clear();
+        }
+
+        @Override
+        public long cardinality() {
+            return bitmap.getLongCardinality();
+        }
+
+        @Override
+        public long bytes() {
+            return bitmap.getLongSizeInBytes();
+        }
+
+        @Override
+        public PrimitiveIterator.OfLong iterator() {
+            PeekableIntIterator iterator = bitmap.getIntIterator();
+            return new PrimitiveIterator.OfLong() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public long nextLong() {
+                    return Integer.toUnsignedLong(iterator.next());
+                }
+            };
+        }
+    }
+
+    private static final class Roaring64 implements Store {
+        private final Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+
+        @Override
+        public Kind kind() {
+            return Kind.ROARING_64;
+        }
+
+        @Override
+        public void add(long nodeId) {
+            bitmap.addLong(nodeId);
+        }
+
+        @Override
+        public boolean contains(long nodeId) {
+            return bitmap.contains(nodeId);
+        }
+
+        @Override
+        public void or(Store other) {
+            if (other instanceof Roaring64) {
+                bitmap.or(((Roaring64) other).bitmap);
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    bitmap.addLong(iterator.nextLong());
+                }
+            }
+        }
+
+        @Override
+        public Store andNot(Store other) {
+            if (other instanceof Roaring64) {
+                bitmap.andNot(((Roaring64) other).bitmap);
+                return this;
+            }
+            Roaring64 kept = new Roaring64();
+            LongIterator iterator = bitmap.getLongIterator();
+            while (iterator.hasNext()) {
+                long nodeId = iterator.next();
+                if (!other.contains(nodeId)) {
+                    kept.add(nodeId);
+                }
+            }
+            return kept;
+        }
+
+        @Override
+        public Store and(Store other) {
+            if (other instanceof Roaring64) {
+                bitmap.and(((Roaring64) other).bitmap);
+                return this;
+            }
+            Roaring64 kept = new Roaring64();
+            LongIterator iterator = bitmap.getLongIterator();
+            while (iterator.hasNext()) {
+                long nodeId = iterator.next();
+                if (other.contains(nodeId)) {
+                    kept.add(nodeId);
+                }
+            }
+            return kept;
+        }
+
+        @Override
+        public void clear() {
+            bitmap.clear();
+        }
+
+        @Override
+        public long cardinality() {
+            return bitmap.getLongCardinality();
+        }
+
+        @Override
+        public long bytes() {
+            return bitmap.getLongSizeInBytes();
+        }
+
+        @Override
+        public PrimitiveIterator.OfLong iterator() {
+            LongIterator iterator = bitmap.getLongIterator();
+            return new PrimitiveIterator.OfLong() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public long nextLong() {
+                    return iterator.next();
+                }
+            };
+        }
+    }
+
+    /**
+     * One bit per id below highId. Grows if a node created during the traversal shows up,
+     * and keeps its cardinality as it goes, so the budget checks don't count bits.
+     */
+    private static final class Dense implements Store {
+        private long[] words;
+        private long cardinality;
+
+        Dense(long highId) {
+            this.words = new long[(int) ((highId + Long.SIZE - 1) >>> 6)];
+        }
+
+        @Override
+        public Kind kind() {
+            return Kind.DENSE;
+        }
+
+        @Override
+        public void add(long nodeId) {
+            int word = (int) (nodeId >>> 6);
+            if (word >= words.length) {
+                grow(word);
+            }
+            long bit = 1L << nodeId;
+            if ((words[word] & bit) == 0) {
+                words[word] |= bit;
+                cardinality++;
+            }
+        }
+
+        @Override
+        public boolean contains(long nodeId) {
+            int word = (int) (nodeId >>> 6);
+            return word < words.length && (words[word] & (1L << nodeId)) != 0;
+        }
+
+        @Override
+        public void or(Store other) {
+            if (other instanceof Dense) {
+                long[] others = ((Dense) other).words;
+                if (others.length > words.length) {
+                    grow(others.length - 1);
+                }
+                for (int i = 0; i < others.length; i++) {
+                    words[i] |= others[i];
+                }
+                count();
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    add(iterator.nextLong());
+                }
+            }
+        }
+
+        @Override
+        public Store andNot(Store other) {
+            if (other instanceof Dense) {
+                long[] others = ((Dense) other).words;
+                for (int i = 0; i < Math.min(words.length, others.length); i++) {
+                    words[i] &= ~others[i];
+                }
+                count();
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    long nodeId = iterator.nextLong();
+                    int word = (int) (nodeId >>> 6);
+                    if (word < words.length && (words[word] & (1L << nodeId)) != 0) {
+                        words[word] &= ~(1L << nodeId);
+                        cardinality--;
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Store and(Store other) {
+            if (other instanceof Dense) {
+                long[] others = ((Dense) other).words;
+                for (int i = 0; i < words.length; i++) {
+                    words[i] &= i < others.length ? others[i] : 0;
+                }
+                count();
+            } else {
+                for (int i = 0; i < words.length; i++) {
+                    long bits = words[i];
+                    while (bits != 0) {
+                        long bit = Long.lowestOneBit(bits);
+                        bits ^= bit;
+                        if (!other.contains(((long) i << 6) + Long.numberOfTrailingZeros(bit))) {
+                            words[i] &= ~bit;
+                            cardinality--;
+                        }
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(words, 0);
+            cardinality = 0;
+        }
+
+        @Override
+        public long cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public long bytes() {
+            return (long) words.length * Long.BYTES;
+        }
+
+        @Override
+        public PrimitiveIterator.OfLong iterator() {
+            return new PrimitiveIterator.OfLong() {
+                private int word = -1;
+                private long remaining;
+
+                @Override
+                public boolean hasNext() {
+                    while (remaining == 0) {
+                        if (++word >= words.length) {
+                            return false;
+                        }
+                        remaining = words[word];
+                    }
+                    return true;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    long bit = Long.lowestOneBit(remaining);
+                    remaining ^= bit;
+                    return ((long) word << 6) + Long.numberOfTrailingZeros(bit);
+                }
+            };
+        }
+
+        long word(long word) {
+            return word < words.length ? words[(int) word] : 0;
+        }
+
+        private void grow(int word) {
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length + (words.length >>> 1)));
+        }
+
+        private void count() {
+            long count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            cardinality = count;
+        }
+    }
+
+    /**
+     * One bit per id below highId in a memory mapped file. Works like {@link Dense}, except that
+     * growing it for a node created during the traversal copies it to a larger file.
+     * It keeps track of the chunks it has written to, so merges, iteration and clearing only read
+     * the part of the file the set ever covered, and keeps its cardinality as it goes.
+     */
+    private static final class Mapped implements Store {
+        // Words per chunk, a 4KB page of the file
+        private static final int CHUNK_SHIFT = 9;
+
+        private final File directory;
+        private final BitSet touched = new BitSet();
+        private MappedLongArray words;
+        private long cardinality;
+
+        Mapped(File directory, long highId) {
+            this.directory = directory;
+            this.words = new MappedLongArray(directory, (highId + Long.SIZE - 1) >>> 6);
+        }
+
+        @Override
+        public Kind kind() {
+            return Kind.MAPPED;
+        }
+
+        @Override
+        public void add(long nodeId) {
+            long word = nodeId >>> 6;
+            if (word >= words.length()) {
+                grow(word);
+            }
+            long bits = words.get(word);
+            long bit = 1L << nodeId;
+            if ((bits & bit) == 0) {
+                set(word, bits | bit);
+                cardinality++;
+            }
+        }
+
+        @Override
+        public boolean contains(long nodeId) {
+            long word = nodeId >>> 6;
+            return word < words.length() && touched.get((int) (word >>> CHUNK_SHIFT))
+                    && (words.get(word) & (1L << nodeId)) != 0;
+        }
+
+        @Override
+        public void or(Store other) {
+            if (other instanceof Dense || other instanceof Mapped) {
+                long length = other instanceof Dense ? ((Dense) other).words.length : ((Mapped) other).words.length();
+                if (length > words.length()) {
+                    grow(length - 1);
+                }
+                for (long i = next(other, 0); i >= 0; i = next(other, i + 1)) {
+                    long bits = word(other, i);
+                    if (bits == 0) {
+                        continue;
+                    }
+                    long old = words.get(i);
+                    if ((old | bits) != old) {
+                        set(i, old | bits);
+                        cardinality += Long.bitCount(bits & ~old);
+                    }
+                }
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    add(iterator.nextLong());
+                }
+            }
+        }
+
+        @Override
+        public Store andNot(Store other) {
+            if (other instanceof Dense || other instanceof Mapped) {
+                for (long i = next(this, 0); i >= 0; i = next(this, i + 1)) {
+                    long old = words.get(i);
+                    long removed = old & word(other, i);
+                    if (removed != 0) {
+                        words.set(i, old & ~removed);
+                        cardinality -= Long.bitCount(removed);
+                    }
+                }
+            } else {
+                PrimitiveIterator.OfLong iterator = other.iterator();
+                while (iterator.hasNext()) {
+                    long nodeId = iterator.nextLong();
+                    if (contains(nodeId)) {
+                        long word = nodeId >>> 6;
+                        words.set(word, words.get(word) & ~(1L << nodeId));
+                        cardinality--;
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Store and(Store other) {
+            boolean bitset = other instanceof Dense || other instanceof Mapped;
+            for (long i = next(this, 0); i >= 0; i = next(this, i + 1)) {
+                long bits = words.get(i);
+                if (bits == 0) {
+                    continue;
+                }
+                long kept = bits;
+                if (bitset) {
+                    kept &= word(other, i);
+                } else {
+                    while (bits != 0) {
+                        long bit = Long.lowestOneBit(bits);
+                        bits ^= bit;
+                        if (!other.contains((i << 6) + Long.numberOfTrailingZeros(bit))) {
+                            kept &= ~bit;
+                        }
+                    }
+                }
+                long old = words.get(i);
+                if (kept != old) {
+                    words.set(i, kept);
+                    cardinality -= Long.bitCount(old & ~kept);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void clear() {
+            for (long i = next(this, 0); i >= 0; i = next(this, i + 1)) {
+                if (words.get(i) != 0) {
+                    words.set(i, 0);
+                }
+            }
+            touched.clear();
+            cardinality = 0;
+        }
+
+        @Override
+        public long cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public long bytes() {
+            return words.bytes();
+        }
+
+        @Override
+        public PrimitiveIterator.OfLong iterator() {
+            return new PrimitiveIterator.OfLong() {
+                private long word = -1;
+                private long remaining;
+
+                @Override
+                public boolean hasNext() {
+                    while (remaining == 0) {
+                        word = Mapped.next(Mapped.this, word + 1);
+                        if (word < 0) {
+                            return false;
+                        }
+                        remaining = words.get(word);
+                    }
+                    return true;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    long bit = Long.lowestOneBit(remaining);
+                    remaining ^= bit;
+                    return (word << 6) + Long.numberOfTrailingZeros(bit);
+                }
+            };
+        }
+
+        private void set(long word, long bits) {
+            words.set(word, bits);
+            touched.set((int) (word >>> CHUNK_SHIFT));
+        }
+
+        // The first word of a bitset at or after from that may have bits set, -1 past the last one
+        private static long next(Store bitset, long from) {
+            if (bitset instanceof Dense) {
+                return from < ((Dense) bitset).words.length ? from : -1;
+            }
+            Mapped mapped = (Mapped) bitset;
+            if (from >= mapped.words.length()) {
+                return -1;
+            }
+            int chunk = mapped.touched.nextSetBit((int) (from >>> CHUNK_SHIFT));
+            if (chunk < 0) {
+                return -1;
+            }
+            return Math.max(from, (long) chunk << CHUNK_SHIFT);
+        }
+
+        // A word of a bitset, whichever of the two it is, 0 past its end
+        private static long word(Store bitset, long word) {
+            if (bitset instanceof Dense) {
+                return ((Dense) bitset).word(word);
+            }
+            Mapped mapped = (Mapped) bitset;
+            return word < mapped.words.length() && mapped.touched.get((int) (word >>> CHUNK_SHIFT))
+                    ? mapped.words.get(word) : 0;
+        }
+
+        private void grow(long word) {
+            MappedLongArray grown = new MappedLongArray(directory, Math.max(word + 1, words.length() + (words.length() >>> 1)));
+            for (long i = next(this, 0); i >= 0; i = next(this, i + 1)) {
+                long bits = words.get(i);
+                if (bits != 0) {
+                    grown.set(i, bits);
+                }
+            }
+            words = grown;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.maxdemarzi;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed size array of 1, 4 or 8 byte integers held outside the heap in direct buffers.
+ * A single direct buffer can not hold more than 2GB, so the array is split into pages.
+ */
+public class OffHeapArray {
+    private static final int PAGE_SHIFT = 27;
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+
+    private final long length;
+    private final int width;
+    private final ByteBuffer[] pages;
+
+    public OffHeapArray(long length, int width) {
+        if (width != Byte.BYTES && width != Integer.BYTES && width != Long.BYTES) {
+            throw new IllegalArgumentException("Width must be 1, 4 or 8 bytes, not " + width);
+        }
+        this.length = length;
+        this.width = width;
+        long bytes = length * width;
+        int count = (int) ((bytes + PAGE_MASK) >>> PAGE_SHIFT);
+        this.pages = new ByteBuffer[count];
+        for (int p = 0; p < count; p++) {
+            long size = Math.min(bytes - ((long) p << PAGE_SHIFT), 1L << PAGE_SHIFT);
+            pages[p] = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public long get(long index) {
+        long offset = index * width;
+        ByteBuffer page = pages[(int) (offset >>> PAGE_SHIFT)];
+        int position = (int) (offset & PAGE_MASK);
+        switch (width) {
+            case Long.BYTES:
+                return page.getLong(position);
+            case Integer.BYTES:
+                return page.getInt(position);
+            default:
+                return page.get(position) & 0xFF;
+        }
+    }
+
+    public void set(long index, long value) {
+        long offset = index * width;
+        ByteBuffer page = pages[(int) (offset >>> PAGE_SHIFT)];
+        int position = (int) (offset & PAGE_MASK);
+        switch (width) {
+            case Long.BYTES:
+                page.putLong(position, value);
+                break;
+            case Integer.BYTES:
+                page.putInt(position, (int) value);
+                break;
+            default:
+                page.put(position, (byte) value);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long bytes() {
+        return length * width;
+    }
+
+    /**
+     * Direct memory not yet taken by any direct buffer of the JVM: -XX:MaxDirectMemorySize, or the
+     * maximum heap size when it is not set, less what the direct buffer pool holds.
+     */
+    public static long free() {
+        long max = 0;
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            max = Long.parseLong(hotSpot.getVMOption("MaxDirectMemorySize").getValue());
+        } catch (RuntimeException e) {
+            // Not a HotSpot JVM, it defaults to the heap size too
+        }
+        if (max <= 0) {
+            max = Runtime.getRuntime().maxMemory();
+        }
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                used = pool.getMemoryUsed();
+            }
+        }
+        return Math.max(0, max - used);
+    }
+}
@@ -0,0 +1,22 @@
+package com.maxdemarzi;
+
+import java.io.File;
+
+/**
+ * Where an expansion task of a parallel hop puts the neighbours it finds. Every task fills its
+ * own, and a task's outbox takes in those of the tasks it forked once they are done.
+ */
+interface Outbox {
+
+    void add(long nodeId);
+
+    void merge(Outbox other);
+
+    // Nodes the traversal is known to hold, for the budget checks
+    long visited();
+
+    long bytes();
+
+    // Spills the largest of its sets to the directory until those left on the heap take no more than bytes
+    void spill(long bytes, File directory);
+}
@@ -0,0 +1,299 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.logging.Log;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The frontier and seen set of a parallel traversal, partitioned by node id range.
+ * Node ids are split into blocks of 2^16 (one Roaring container each) and the blocks
+ * are dealt to the shards, so every shard owns whole containers and can deduplicate
+ * its part of the next frontier without touching any other shard.
+ * The shards stay sparse: a shard owns one block in every {@code shards}, so a bitset over the
+ * whole id space per shard would hold mostly zeros. They can still spill to mapped files, where
+ * the blocks a shard does not own are never written and take no room. The shards' sets and the
+ * outboxes of the expansion tasks spill against the one budget of the traversal, and a shard
+ * merging a spilled outbox spills its inbox too.
+ */
+public class PartitionedFrontier implements Frontier {
+    static final int BLOCK_SHIFT = 16;
+
+    private final int shards;
+    private final long highId;
+    private final NodeSet[] seen;
+    private final NodeSet[] current;
+    private final LongAdder scanned = new LongAdder();
+
+    public PartitionedFrontier(int shards, long highId) {
+        this.shards = shards;
+        this.highId = highId;
+        this.seen = sets(shards, highId);
+        this.current = sets(shards, highId);
+    }
+
+    // One empty set per shard
+    static NodeSet[] sets(int shards, long highId) {
+        NodeSet[] sets = new NodeSet[shards];
+        for (int s = 0; s < shards; s++) {
+            sets[s] = NodeSet.sparse(highId);
+        }
+        return sets;
+    }
+
+    static int shardOf(long nodeId, int shards) {
+        return (int) ((nodeId >>> BLOCK_SHIFT) % shards);
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    @Override
+    public void seed(long nodeId) {
+        int shard = shardOf(nodeId, shards);
+        seen[shard].add(nodeId);
+        current[shard].add(nodeId);
+    }
+
+    @Override
+    public void load(NodeSet seen, NodeSet frontier) {
+        PrimitiveIterator.OfLong nodes = seen.iterator();
+        while (nodes.hasNext()) {
+            long nodeId = nodes.nextLong();
+            this.seen[shardOf(nodeId, shards)].add(nodeId);
+        }
+        nodes = frontier.iterator();
+        while (nodes.hasNext()) {
+            long nodeId = nodes.nextLong();
+            current[shardOf(nodeId, shards)].add(nodeId);
+        }
+    }
+
+    @Override
+    public void prune(LabelFilter filter) {
+        for (NodeSet shard : current) {
+            filter.prune(shard);
+        }
+    }
+
+    /**
+     * Expands every shard's frontier in parallel, routing each neighbour to the outbox of the
+     * shard that owns it, then lets every shard merge its inboxes against its own seen set.
+     * A profiled hop records the time of both phases and the bitmaps held in between.
+     */
+    @Override
+    public void hop(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+                    TraversalProfile.Hop hop) {
+        scanned.reset();
+        budget.spill(held());
+        final Sharded[] outboxes = new Sharded[shards];
+
+        List<RecursiveAction> expansions = new ArrayList<>(shards);
+        List<RecursiveAction> merges = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) {
+            final int shard = s;
+            expansions.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    long[] nodes = current[shard].toArray();
+                    outboxes[shard] = (Sharded) new NextHop(db, log, nodes, 0, nodes.length, step, () -> new Sharded(shards, highId),
+                            pool.chunkSize(), pool.splitDegree(), scanned, budget, hop).invoke();
+                }
+            });
+            merges.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    NodeSet inbox = NodeSet.sparse(highId);
+                    for (Sharded outbox : outboxes) {
+                        inbox.or(outbox.sets[shard]);
+                    }
+                    inbox.andNot(seen[shard]);
+                    seen[shard].or(inbox);
+                    current[shard] = inbox;
+                }
+            });
+        }
+
+        long[] phases = new long[3];
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                phases[0] = System.nanoTime();
+                invokeAll(expansions);
+                phases[1] = System.nanoTime();
+                if (hop != null) {
+                    long bytes = bytes();
+                    for (Sharded outbox : outboxes) {
+                        bytes += outbox.bytes();
+                    }
+                    hop.bytes(bytes);
+                    phases[1] = System.nanoTime();
+                }
+                invokeAll(merges);
+                phases[2] = System.nanoTime();
+            }
+        });
+        if (hop != null) {
+            hop.expanded(phases[1] - phases[0], scanned.sum());
+            hop.merged(phases[2] - phases[1], frontierCount(), bytes());
+        }
+    }
+
+    /**
+     * Bottom-up hop: every shard scans its own unvisited ids for nodes with a neighbour in the
+     * frontier, then the nodes found become the new frontier once all shards are done reading it.
+     */
+    @Override
+    public void bottomUp(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+                         TraversalProfile.Hop hop) {
+        budget.spill(held());
+        final long blocks = (highId >>> BLOCK_SHIFT) + 1;
+        final NodeSet[] found = new NodeSet[shards];
+
+        List<RecursiveAction> scans = new ArrayList<>(shards);
+        List<RecursiveAction> merges = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) {
+            final int shard = s;
+            // Blocks shard, shard + shards, shard + 2 * shards ... belong to this shard
+            final long owned = blocks > shard ? (blocks - shard - 1) / shards + 1 : 0;
+            scans.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    found[shard] = owned == 0 ? NodeSet.sparse(highId)
+                            : new BottomUp(db, log, seen[shard]::contains, current, step, shard, 0, owned, highId, budget, hop).invoke();
+                }
+            });
+            merges.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    seen[shard].or(found[shard]);
+                    current[shard] = found[shard];
+                }
+            });
+        }
+
+        long[] phases = new long[3];
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                phases[0] = System.nanoTime();
+                invokeAll(scans);
+                phases[1] = System.nanoTime();
+                invokeAll(merges);
+                phases[2] = System.nanoTime();
+            }
+        });
+        if (hop != null) {
+            long bytes = bytes();
+            hop.expanded(phases[1] - phases[0], null);
+            hop.merged(phases[2] - phases[1], frontierCount(), bytes);
+        }
+    }
+
+    // Relationships read by the last top-down hop
+    @Override
+    public long scanned() {
+        return scanned.sum();
+    }
+
+    @Override
+    public long frontierCount() {
+        long count = 0;
+        for (NodeSet shard : current) {
+            count += shard.cardinality();
+        }
+        return count;
+    }
+
+    // Every node seen so far, merged across shards
+    @Override
+    public Roaring64NavigableMap seen() {
+        Roaring64NavigableMap all = new Roaring64NavigableMap();
+        for (NodeSet shard : seen) {
+            all.or(shard.toRoaring64());
+        }
+        return all;
+    }
+
+    @Override
+    public long seenCount() {
+        long count = 0;
+        for (NodeSet shard : seen) {
+            count += shard.cardinality();
+        }
+        return count;
+    }
+
+    // The seen set and frontier of every shard, for the spill budget
+    private List<NodeSet> held() {
+        List<NodeSet> held = new ArrayList<>(2 * shards);
+        held.addAll(Arrays.asList(seen));
+        held.addAll(Arrays.asList(current));
+        return held;
+    }
+
+    // Size of the seen and frontier bitmaps of every shard
+    @Override
+    public long bytes() {
+        long bytes = 0;
+        for (int s = 0; s < shards; s++) {
+            bytes += seen[s].bytes() + current[s].bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The neighbours found by one expansion task, sorted by the shard that owns them.
+     */
+    static final class Sharded implements Outbox {
+        private final NodeSet[] sets;
+
+        Sharded(int shards, long highId) {
+            this.sets = PartitionedFrontier.sets(shards, highId);
+        }
+
+        @Override
+        public void add(long nodeId) {
+            sets[shardOf(nodeId, sets.length)].add(nodeId);
+        }
+
+        @Override
+        public void merge(Outbox other) {
+            NodeSet[] others = ((Sharded) other).sets;
+            for (int s = 0; s < sets.length; s++) {
+                sets[s].or(others[s]);
+            }
+        }
+
+        @Override
+        public long visited() {
+            long visited = 0;
+            for (NodeSet set : sets) {
+                visited += set.cardinality();
+            }
+            return visited;
+        }
+
+        @Override
+        public long bytes() {
+            long bytes = 0;
+            for (NodeSet set : sets) {
+                bytes += set.bytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void spill(long bytes, File directory) {
+            NodeSet.spill(Arrays.asList(sets), bytes, directory);
+        }
+    }
+}
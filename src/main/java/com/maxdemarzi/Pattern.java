@@ -0,0 +1,61 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.TokenRead;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The step every hop of a traversal follows. A traversal given relationship types follows the same
+ * step at every hop. One given a pattern, a list of steps such as
+ * {@code [['FOLLOWS>'], ['<FOLLOWS']]} for the followers of the people a node follows, follows
+ * them in order, starting over from the first once past the last.
+ */
+public final class Pattern {
+    private final Step[] steps;
+
+    private Pattern(Step[] steps) {
+        this.steps = steps;
+    }
+
+    // The same step at every hop
+    static Pattern of(Step step) {
+        return new Pattern(new Step[]{step});
+    }
+
+    public static Pattern of(TokenRead tokenRead, List<String> relationshipTypes, List<List<String>> pattern) {
+        if (pattern.isEmpty()) {
+            return of(Step.of(tokenRead, relationshipTypes));
+        }
+        if (!relationshipTypes.isEmpty()) {
+            throw new IllegalArgumentException("Relationship types and a pattern can not be given together");
+        }
+        Step[] steps = new Step[pattern.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = Step.of(tokenRead, pattern.get(i));
+        }
+        return new Pattern(steps);
+    }
+
+    // Hops are counted from 0
+    public Step step(long hop) {
+        return steps[(int) (hop % steps.length)];
+    }
+
+    // Steps before the pattern starts over
+    int size() {
+        return steps.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(steps, ((Pattern) o).steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(steps);
+    }
+}
@@ -1,10 +1,14 @@
 package com.maxdemarzi;
 
+import com.maxdemarzi.results.AutoResult;
+import com.maxdemarzi.results.HopProfileResult;
+import com.maxdemarzi.results.HopResult;
 import com.maxdemarzi.results.LongResult;
+import com.maxdemarzi.results.MetricsResult;
+import com.maxdemarzi.results.NodeLongResult;
+import com.maxdemarzi.results.PartialResult;
 import org.neo4j.graphdb.*;
 import org.neo4j.internal.kernel.api.*;
-import org.neo4j.internal.kernel.api.helpers.RelationshipSelectionCursor;
-import org.neo4j.internal.kernel.api.helpers.RelationshipSelections;
 import org.neo4j.kernel.api.KernelTransaction;
 import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
@@ -13,9 +17,8 @@ import org.neo4j.procedure.*;
 import org.roaringbitmap.longlong.Roaring64NavigableMap;
 
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Procedures {
 
@@ -29,9 +32,6 @@ public class Procedures {
     @Context
     public Log log;
 
-    // How many CPUs do I have available?
-    private static final int THREADS = Runtime.getRuntime().availableProcessors();
-
 
     @Procedure(name = "com.maxdemarzi.khops", mode = Mode.READ)
     @Description("com.maxdemarzi.khops(Node node, Long distance, List<String> relationshipTypes)")
@@ -43,322 +43,554 @@ public class Procedures {
         if (startingNode == null) {
             return Stream.empty();
         } else {
+            return Stream.of(new LongResult(khops(startingNode, distance, relationshipTypes, null)));
+        }
+    }
 
-            RelationshipType[] types = new RelationshipType[relationshipTypes.size()];
-            for (int i = 0; i < types.length; i++) {
-                types[i] = RelationshipType.withName(relationshipTypes.get(i));
-            }
+    private long khops(Node startingNode, Long distance, List<String> relationshipTypes, TraversalProfile profile) {
+        // Relationship type names are taken as they are, KNOWS> would be a type of its own
+        if (Step.directed(relationshipTypes)) {
+            throw new IllegalArgumentException("khops follows relationships both ways, use khops2 for directed types");
+        }
+        long started = System.nanoTime();
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        KHopsCache cache = profile == null ? KHopsCache.get(db, ktx) : KHopsCache.DISABLED;
+        KHopsCache.Key key = KHopsCache.key(startingNode.getId(), distance,
+                Pattern.of(ktx.tokenRead(), relationshipTypes, Collections.emptyList()));
+        Long cached = cache.get(key);
+        if (cached != null) {
+            KHopsMetrics.get(db).record(KHopsMetrics.KHOPS, started, cached, true, false);
+            return cached;
+        }
+        long generation = cache.generation();
 
-            Node node;
-            // Initialize bitmaps for iteration
-            Roaring64NavigableMap seen = new Roaring64NavigableMap();
-            Roaring64NavigableMap nextA = new Roaring64NavigableMap();
-            Roaring64NavigableMap nextB = new Roaring64NavigableMap();
+        RelationshipType[] types = new RelationshipType[relationshipTypes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = RelationshipType.withName(relationshipTypes.get(i));
+        }
 
-            long nodeId = startingNode.getId();
-            seen.add(nodeId);
-            Iterator<Long> iterator;
+        // Initialize bitmaps for iteration
+        Roaring64NavigableMap seen = new Roaring64NavigableMap();
+        Roaring64NavigableMap nextA = new Roaring64NavigableMap();
+        Roaring64NavigableMap nextB = new Roaring64NavigableMap();
 
-            // First Hop
-            if (types.length == 0) {
-                for (Relationship r : startingNode.getRelationships()) {
-                    nextB.add(r.getOtherNodeId(nodeId));
-                }
-            } else {
-                for (Relationship r : startingNode.getRelationships(types)) {
-                    nextB.add(r.getOtherNodeId(nodeId));
-                }
-            }
+        long nodeId = startingNode.getId();
+        seen.add(nodeId);
 
-            for (int i = 1; i < distance; i++) {
-                // next even Hop
-                nextB.andNot(seen);
-                seen.or(nextB);
-                nextA.clear();
-                iterator = nextB.iterator();
-                while (iterator.hasNext()) {
-                    nodeId = iterator.next();
-                    node = db.getNodeById(nodeId);
-                    if (types.length == 0) {
-                        for (Relationship r : node.getRelationships()) {
-                            nextA.add(r.getOtherNodeId(nodeId));
-                        }
-                    } else {
-                        for (Relationship r : node.getRelationships(types)) {
-                            nextA.add(r.getOtherNodeId(nodeId));
-                        }
-                    }
-                }
+        // First Hop
+        khopsHop(Roaring64NavigableMap.bitmapOf(nodeId), nextB, types, profile);
 
-                i++;
-                if (i < distance) {
-                    // next odd Hop
-                    nextA.andNot(seen);
-                    seen.or(nextA);
-                    nextB.clear();
-                    iterator = nextA.iterator();
-                    while (iterator.hasNext()) {
-                        nodeId = iterator.next();
-                        node = db.getNodeById(nodeId);
-                        if (types.length == 0) {
-                            for (Relationship r : node.getRelationships()) {
-                                nextB.add(r.getOtherNodeId(nodeId));
-                            }
-                        } else {
-                            for (Relationship r : node.getRelationships(types)) {
-                                nextB.add(r.getOtherNodeId(nodeId));
-                            }
-
-                        }
-                    }
-                }
+        for (int i = 1; i < distance; i++) {
+            // next even Hop
+            long merge = System.nanoTime();
+            nextB.andNot(seen);
+            seen.or(nextB);
+            if (profile != null) {
+                profile.merged(merge, nextB.getLongCardinality(), seen.getLongSizeInBytes() + nextB.getLongSizeInBytes());
             }
-
-            if ((distance % 2) == 0) {
+            nextA.clear();
+            khopsHop(nextB, nextA, types, profile);
+
+            i++;
+            if (i < distance) {
+                // next odd Hop
+                merge = System.nanoTime();
+                nextA.andNot(seen);
                 seen.or(nextA);
-            } else {
-                seen.or(nextB);
+                if (profile != null) {
+                    profile.merged(merge, nextA.getLongCardinality(), seen.getLongSizeInBytes() + nextA.getLongSizeInBytes());
+                }
+                nextB.clear();
+                khopsHop(nextA, nextB, types, profile);
             }
-            // remove starting node
-            seen.removeLong(startingNode.getId());
+        }
+
+        long merge = System.nanoTime();
+        long before = seen.getLongCardinality();
+        Roaring64NavigableMap last = (distance % 2) == 0 ? nextA : nextB;
+        seen.or(last);
+        if (profile != null) {
+            profile.merged(merge, seen.getLongCardinality() - before, seen.getLongSizeInBytes() + last.getLongSizeInBytes());
+        }
+        // don't count the starting node
+        long count = seen.getLongCardinality() - 1;
+        cache.put(key, generation, count, seen);
 
-            return Stream.of(new LongResult(seen.getLongCardinality()));
+        KHopsMetrics.get(db).record(KHopsMetrics.KHOPS, started, count, false, false);
+        return count;
+    }
+
+    // Adds the other node of every relationship of the frontier to next
+    private void khopsHop(Roaring64NavigableMap frontier, Roaring64NavigableMap next, RelationshipType[] types,
+                          TraversalProfile profile) {
+        TraversalProfile.Hop hop = profile == null ? null : profile.next(TraversalProfile.TOP_DOWN, frontier.getLongCardinality());
+        long expansion = hop == null ? 0 : System.nanoTime();
+        long relationships = 0;
+        Iterator<Long> iterator = frontier.iterator();
+        while (iterator.hasNext()) {
+            long nodeId = iterator.next();
+            Node node = db.getNodeById(nodeId);
+            for (Relationship r : types.length == 0 ? node.getRelationships() : node.getRelationships(types)) {
+                next.add(r.getOtherNodeId(nodeId));
+                relationships++;
+            }
+        }
+        if (hop != null) {
+            long nanos = System.nanoTime() - expansion;
+            hop.expanded(nanos, relationships);
+            hop.worked(nanos);
         }
     }
 
     @Procedure(name = "com.maxdemarzi.khops2", mode = Mode.READ)
-    @Description("com.maxdemarzi.khops2(Node node, Long distance, List<String> relationshipTypes)")
-    public Stream<LongResult> khops2(@Name("startingNode") Node startingNode, @Name(value = "distance", defaultValue = "1") Long distance,
-                                   @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) {
+    @Description("com.maxdemarzi.khops2(Node node, Long distance, List<String> relationshipTypes, Map limits, Map filters, List<List<String>> pattern)")
+    public Stream<PartialResult> khops2(@Name("startingNode") Node startingNode, @Name(value = "distance", defaultValue = "1") Long distance,
+                                   @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                   @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits,
+                                   @Name(value = "filters", defaultValue = "{}") Map<String, Object> filters,
+                                   @Name(value = "pattern", defaultValue = "[]") List<List<String>> pattern) {
         if (distance < 1) return Stream.empty();
 
         if (startingNode == null) {
             return Stream.empty();
         } else {
-            DependencyResolver dependencyResolver = ((GraphDatabaseAPI)db).getDependencyResolver();
-            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
-            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
-            CursorFactory cursors = ktx.cursors();
-            Read read = ktx.dataRead();
-            TokenRead tokenRead = ktx.tokenRead();
-
-            int[] types = new int[relationshipTypes.size()];
-            for (int i = 0; i < types.length; i++) {
-                types[i] = tokenRead.relationshipType(relationshipTypes.get(i));
-            }
-
-            Roaring64NavigableMap seen = new Roaring64NavigableMap();
-            Roaring64NavigableMap nextOdd = new Roaring64NavigableMap();
-            Roaring64NavigableMap nextEven = new Roaring64NavigableMap();
-
-            seen.add(startingNode.getId());
-
-            RelationshipTraversalCursor rels = cursors.allocateRelationshipTraversalCursor();
-            NodeCursor nodeCursor = cursors.allocateNodeCursor();
-
-            read.singleNode(startingNode.getId(), nodeCursor);
-
-            nodeCursor.next();
-
-            // First Hop
-            if (types.length == 0) {
-                nodeCursor.allRelationships(rels);
-                while (rels.next()) {
-                    nextEven.add(rels.neighbourNodeReference());
-                }
-            } else {
-                RelationshipSelectionCursor typedRels = RelationshipSelections.allCursor(cursors, nodeCursor, types);
-                while (typedRels.next()) {
-                    nextEven.add(typedRels.otherNodeReference());
-                }
-            }
+            return Stream.of(khops2(startingNode, distance, relationshipTypes, limits, filters, pattern, null));
+        }
+    }
 
-            for (int i = 1; i < distance; i++) {
-                // Next even Hop
-                nextHop(read, seen, nextOdd, nextEven, types, cursors);
+    @Procedure(name = "com.maxdemarzi.parallel.khops2", mode = Mode.READ)
+    @Description("com.maxdemarzi.parallel.khops2(Node node, Long distance, List<String> relationshipTypes, Map limits, Map filters, List<List<String>> pattern)")
+    public Stream<PartialResult> parallelkhops2(@Name("startingNode") Node startingNode,
+                                           @Name(value = "distance", defaultValue = "1") Long distance,
+                                           @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                           @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits,
+                                           @Name(value = "filters", defaultValue = "{}") Map<String, Object> filters,
+                                           @Name(value = "pattern", defaultValue = "[]") List<List<String>> pattern) {
+        if (distance < 1) return Stream.empty();
 
-                i++;
-                if (i < distance) {
-                    // Next odd Hop
-                    nextHop(read, seen, nextEven, nextOdd, types, cursors);
-                }
-            }
+        if (startingNode == null) {
+            return Stream.empty();
+        } else {
+            return Stream.of(parallelkhops2(startingNode, distance, relationshipTypes, limits, filters, pattern, null));
+        }
+    }
 
-            if ((distance % 2) == 0) {
-                seen.or(nextOdd);
-            } else {
-                seen.or(nextEven);
-            }
+    @Procedure(name = "com.maxdemarzi.khops.auto", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.auto(Node node, Long distance, List<String> relationshipTypes, Map limits, Map filters, List<List<String>> pattern) - khops2 that plans every hop as sequential or parallel, top-down or bottom-up, and returns the plan")
+    public Stream<AutoResult> khopsAuto(@Name("startingNode") Node startingNode,
+                                        @Name(value = "distance", defaultValue = "1") Long distance,
+                                        @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                        @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits,
+                                        @Name(value = "filters", defaultValue = "{}") Map<String, Object> filters,
+                                        @Name(value = "pattern", defaultValue = "[]") List<List<String>> pattern) {
+        if (distance < 1) return Stream.empty();
 
-            // remove starting node
-            seen.removeLong(startingNode.getId());
+        if (startingNode == null) {
+            return Stream.empty();
+        } else {
+            return Stream.of(khopsAuto(startingNode, distance, relationshipTypes, limits, filters, pattern, null));
+        }
+    }
 
-            return Stream.of(new LongResult(seen.getLongCardinality()));
+    private AutoResult khopsAuto(Node startingNode, Long distance, List<String> relationshipTypes, Map<String, Object> limits,
+                             Map<String, Object> filters, List<List<String>> pattern, TraversalProfile profile) {
+        long started = System.nanoTime();
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
+        Pattern hops = Pattern.of(tokenRead, relationshipTypes, pattern);
+
+        KHopsCache cache = profile == null && filters.isEmpty() ? KHopsCache.get(db, ktx) : KHopsCache.DISABLED;
+        KHopsCache.Key key = KHopsCache.key(startingNode.getId(), distance, hops);
+        Long cached = cache.get(key);
+        if (cached != null) {
+            KHopsMetrics.get(db).record(KHopsMetrics.AUTO, started, cached, true, false);
+            return new AutoResult(cached, Collections.singletonList("cached"), null);
+        }
+        long generation = cache.generation();
+        TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
+
+        long highId = NodeIds.highId(db);
+        LabelFilter filter = LabelFilter.of(ktx.dataRead(), tokenRead, ktx.cursors(), highId, filters);
+        AutoKHops traversal = new AutoKHops(db, log, ktx, hops, highId, budget, filter, profile);
+        long count = traversal.count(startingNode.getId(), distance);
+        if (budget.exhausted()) {
+            log.debug("khops.auto stopped early, " + budget.exceeded() + " limit reached after " + count + " nodes");
+        } else if (cache.enabled()) {
+            cache.put(key, generation, count, traversal.seen());
         }
+
+        KHopsMetrics.get(db).record(KHopsMetrics.AUTO, started, count, false, budget.exhausted());
+        return new AutoResult(count, traversal.plan(), budget.exceeded());
     }
 
-    @Procedure(name = "com.maxdemarzi.parallel.khops2", mode = Mode.READ)
-    @Description("com.maxdemarzi.parallel.khops2(Node node, Long distance, List<String> relationshipTypes)")
-    public Stream<LongResult> parallelkhops2(@Name("startingNode") Node startingNode,
-                                           @Name(value = "distance", defaultValue = "1") Long distance,
-                                           @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) {
+    @Procedure(name = "com.maxdemarzi.khops.profile", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.profile(Node node, Long distance, List<String> relationshipTypes, String engine) - what each hop of khops, khops2, parallel.khops2, khops.auto, khops.stream or khops.batch did and where its time went")
+    public Stream<HopProfileResult> khopsProfile(@Name("startingNode") Node startingNode,
+                                                 @Name(value = "distance", defaultValue = "1") Long distance,
+                                                 @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                                 @Name(value = "engine", defaultValue = "khops2") String engine) {
         if (distance < 1) return Stream.empty();
 
         if (startingNode == null) {
             return Stream.empty();
         } else {
-            DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
-            final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
-            KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
-            CursorFactory cursors = ktx.cursors();
-            Read read = ktx.dataRead();
-
-            TokenRead tokenRead = ktx.tokenRead();
-
-            int[] types = new int[relationshipTypes.size()];
-            for (int i = 0; i < types.length; i++) {
-                types[i] = tokenRead.relationshipType(relationshipTypes.get(i));
+            TraversalProfile profile = new TraversalProfile();
+            switch (engine) {
+                case KHopsMetrics.KHOPS2:
+                    khops2(startingNode, distance, relationshipTypes, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), profile);
+                    break;
+                case KHopsMetrics.PARALLEL_KHOPS2:
+                    parallelkhops2(startingNode, distance, relationshipTypes, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), profile);
+                    break;
+                case KHopsMetrics.KHOPS:
+                    khops(startingNode, distance, relationshipTypes, profile);
+                    break;
+                case KHopsMetrics.AUTO:
+                    khopsAuto(startingNode, distance, relationshipTypes, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), profile);
+                    break;
+                case KHopsMetrics.STREAM:
+                    khopsStream(startingNode, distance, relationshipTypes, false, profile).forEachRemaining(hop -> { });
+                    break;
+                case KHopsMetrics.BATCH:
+                    khopsBatch(Collections.singletonList(startingNode), distance, relationshipTypes, profile);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown engine " + engine + ", expected one of khops, khops2, parallel.khops2, "
+                            + "khops.auto, khops.stream or khops.batch");
             }
+            return profile.hops().stream().map(HopProfileResult::new);
+        }
+    }
 
-            ExecutorService service = Executors.newFixedThreadPool(THREADS);
-            Roaring64NavigableMap seen = new Roaring64NavigableMap();
+    @Procedure(name = "com.maxdemarzi.khops.metrics", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.metrics() - calls, cache hits, partial results and latency of every engine since the database started")
+    public Stream<MetricsResult> khopsMetrics() {
+        return KHopsMetrics.get(db).engines().entrySet().stream()
+                .map(engine -> new MetricsResult(engine.getKey(), engine.getValue()));
+    }
 
-            Phaser ph = new Phaser(1);
+    // A profiled traversal neither reads nor fills the cache, it has to run to be profiled. Neither does a
+    // filtered one, the cache is not told when labels change
+    private PartialResult khops2(Node startingNode, long distance, List<String> relationshipTypes,
+                                 Map<String, Object> limits, Map<String, Object> filters, List<List<String>> pattern,
+                                 TraversalProfile profile) {
+        long started = System.nanoTime();
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI)db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
+        Pattern hops = Pattern.of(tokenRead, relationshipTypes, pattern);
+
+        KHopsCache cache = profile == null && filters.isEmpty() ? KHopsCache.get(db, ktx) : KHopsCache.DISABLED;
+        KHopsCache.Key key = KHopsCache.key(startingNode.getId(), distance, hops);
+        Long cached = cache.get(key);
+        if (cached != null) {
+            KHopsMetrics.get(db).record(KHopsMetrics.KHOPS2, started, cached, true, false);
+            return new PartialResult(cached, null);
+        }
+        long generation = cache.generation();
+
+        CursorFactory cursors = ktx.cursors();
+        Read read = ktx.dataRead();
+        TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
+
+        // Sparse to begin with, each set turns into a bitset if the traversal covers enough of the graph
+        long highId = NodeIds.highId(db);
+        NodeSet seen = NodeSet.sparse(highId);
+        NodeSet nextOdd = NodeSet.sparse(highId);
+        NodeSet nextEven = NodeSet.sparse(highId);
+        LabelFilter filter = LabelFilter.of(read, tokenRead, cursors, highId, filters);
+
+        seen.add(startingNode.getId());
+
+        // Cursors for every node this traversal expands
+        Expansion neighbours = new Expansion(read, cursors, hops.step(0));
+        neighbours.select(startingNode.getId());
+
+        // First Hop
+        TraversalProfile.Hop first = profile == null ? null : profile.next(TraversalProfile.TOP_DOWN, 1);
+        long expansion = first == null ? 0 : System.nanoTime();
+        long relationships = 0;
+        while (neighbours.next()) {
+            nextEven.add(neighbours.neighbour());
+            if (++relationships % TraversalBudget.CHECK_INTERVAL == 0
+                    && !budget.check(nextEven.cardinality() + 1, nextEven.bytes())) {
+                break;
+            }
+        }
+        if (first != null) {
+            long nanos = System.nanoTime() - expansion;
+            first.expanded(nanos, relationships);
+            first.worked(nanos);
+        }
 
-            Roaring64NavigableMap[] nextOdd = new Roaring64NavigableMap[THREADS + 1];
-            Roaring64NavigableMap[] nextEven = new Roaring64NavigableMap[THREADS + 1];
+        DirectionOptimizer optimizer = new DirectionOptimizer(read, hops);
+        optimizer.scanned(1, relationships);
 
-            for (int i = 0; i < (THREADS + 1); ++i) {
-                nextOdd[i] = new Roaring64NavigableMap();
-                nextEven[i] = new Roaring64NavigableMap();
+        for (int i = 1; i < distance && !budget.exhausted(); i++) {
+            // Next even Hop
+            optimizer.hop(i);
+            nextHop(read, seen, nextOdd, nextEven, hops.step(i), cursors, neighbours, filter, optimizer, budget, profile);
+
+            i++;
+            if (i < distance && !budget.exhausted()) {
+                // Next odd Hop
+                optimizer.hop(i);
+                nextHop(read, seen, nextEven, nextOdd, hops.step(i), cursors, neighbours, filter, optimizer, budget, profile);
             }
+        }
 
-            seen.add(startingNode.getId());
+        // Whichever hop was found last, the other one is already in seen
+        TraversalProfile.Hop last = profile == null ? null : profile.last();
+        long merge = last == null ? 0 : System.nanoTime();
+        long before = last == null ? 0 : seen.cardinality();
+        long peak = last == null ? 0 : seen.bytes() + nextOdd.bytes() + nextEven.bytes();
+        seen.or(nextOdd);
+        seen.or(nextEven);
+        if (last != null) {
+            last.merged(System.nanoTime() - merge, seen.cardinality() - before, peak);
+        }
 
-            RelationshipTraversalCursor rels = cursors.allocateRelationshipTraversalCursor();
-            NodeCursor nodeCursor = cursors.allocateNodeCursor();
+        // don't count the starting node
+        long count = filter == null ? seen.cardinality() - 1 : filter.count(seen, startingNode.getId());
+        if (budget.exhausted()) {
+            log.debug("khops2 stopped early, " + budget.exceeded() + " limit reached after " + count + " nodes");
+        } else if (cache.enabled()) {
+            cache.put(key, generation, count, seen.toRoaring64());
+        }
 
-            read.singleNode(startingNode.getId(), nodeCursor);
-            nodeCursor.next();
+        KHopsMetrics.get(db).record(KHopsMetrics.KHOPS2, started, count, false, budget.exhausted());
+        return new PartialResult(count, budget.exceeded());
+    }
 
-            // First Hop
-            final AtomicLong index = new AtomicLong(0);
-            if (types.length == 0) {
-                nodeCursor.allRelationships(rels);
-                while (rels.next()) {
-                    nextEven[(int)(index.getAndIncrement() % THREADS)].add(rels.neighbourNodeReference());
-                }
-            } else {
-                RelationshipSelectionCursor typedRels = RelationshipSelections.allCursor(cursors, nodeCursor, types);
-                while (typedRels.next()) {
-                    nextEven[(int)(index.getAndIncrement() % THREADS)].add(typedRels.otherNodeReference());
-                }
-            }
+    private PartialResult parallelkhops2(Node startingNode, long distance, List<String> relationshipTypes,
+                                         Map<String, Object> limits, Map<String, Object> filters,
+                                         List<List<String>> pattern, TraversalProfile profile) {
+        long started = System.nanoTime();
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
+        Pattern hops = Pattern.of(tokenRead, relationshipTypes, pattern);
+
+        KHopsCache cache = profile == null && filters.isEmpty() ? KHopsCache.get(db, ktx) : KHopsCache.DISABLED;
+        KHopsCache.Key key = KHopsCache.key(startingNode.getId(), distance, hops);
+        Long cached = cache.get(key);
+        if (cached != null) {
+            KHopsMetrics.get(db).record(KHopsMetrics.PARALLEL_KHOPS2, started, cached, true, false);
+            return new PartialResult(cached, null);
+        }
+        long generation = cache.generation();
 
-            // Next even Hop
-            for (int i = 1; i < distance; i++) {
+        TraversalPool pool = TraversalPool.get(db);
 
-                // Combine next (after initial)
-                if (i > 1) {
-                    for (int j = 0; j < THREADS; j++) {
-                        nextEven[THREADS].or(nextEven[j]);
-                        nextEven[j].clear();
-                    }
+        // Too many parallel traversals running, or changes of its own the workers would not see,
+        // do this one on the calling thread
+        if (!pool.admit(ktx)) {
+            log.debug("parallel.khops2 was not admitted to the traversal pool, running sequentially");
+            return khops2(startingNode, distance, relationshipTypes, limits, filters, pattern, profile);
+        }
+
+        try {
+            TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
 
-                    // Redistribute next
-                    index.set(0);
-                    nextEven[THREADS].andNot(seen);
-                    seen.or(nextEven[THREADS]);
+            long highId = NodeIds.highId(db);
+            LabelFilter filter = LabelFilter.of(ktx.dataRead(), tokenRead, ktx.cursors(), highId, filters);
+            Frontier frontier = pool.frontier(highId);
+            frontier.seed(startingNode.getId());
 
-                    nextEven[THREADS].forEach(l -> nextEven[(int)(index.getAndIncrement() % THREADS)].add(l));
+            DirectionOptimizer optimizer = new DirectionOptimizer(ktx.dataRead(), hops);
 
+            for (int i = 0; i < distance && budget.check(frontier.seenCount(), frontier.bytes()); i++) {
+                if (filter != null && i > 0) {
+                    frontier.prune(filter);
+                }
+                long frontierCount = frontier.frontierCount();
+                optimizer.hop(i);
+                if (optimizer.bottomUp(frontierCount, frontier.seenCount())) {
+                    TraversalProfile.Hop hop = profile == null ? null : profile.next(TraversalProfile.BOTTOM_UP, frontierCount);
+                    frontier.bottomUp(pool, db, log, hops.step(i), budget, hop);
                 } else {
-                    for (int j = 0; j < THREADS; j++) {
-                        seen.or(nextEven[j]);
-                    }
+                    TraversalProfile.Hop hop = profile == null ? null : profile.next(TraversalProfile.TOP_DOWN, frontierCount);
+                    frontier.hop(pool, db, log, hops.step(i), budget, hop);
+                    optimizer.scanned(frontierCount, frontier.scanned());
                 }
+            }
 
-                // Next even Hop
-                for (int j = 0; j < THREADS; j++) {
-                    nextOdd[j].clear();
-                    service.submit(new NextHop(db, log, nextOdd[j], nextEven[j], types, ph));
-                }
+            // don't count the starting node
+            long count = filter == null ? frontier.seenCount() - 1 : filter.count(frontier.seen(), startingNode.getId());
+            if (budget.exhausted()) {
+                log.debug("parallel.khops2 stopped early, " + budget.exceeded() + " limit reached after " + count + " nodes");
+            } else if (cache.enabled()) {
+                cache.put(key, generation, count, frontier.seen());
+            }
 
-                // Wait until all have finished
-                ph.arriveAndAwaitAdvance();
+            KHopsMetrics.get(db).record(KHopsMetrics.PARALLEL_KHOPS2, started, count, false, budget.exhausted());
+            return new PartialResult(count, budget.exceeded());
+        } finally {
+            pool.release();
+        }
+    }
 
-                i++;
-                if (i < distance) {
+    @Procedure(name = "com.maxdemarzi.khops.stream", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.stream(Node node, Long distance, List<String> relationshipTypes, Boolean withNodes)")
+    public Stream<HopResult> khopsStream(@Name("startingNode") Node startingNode,
+                                         @Name(value = "distance", defaultValue = "1") Long distance,
+                                         @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                         @Name(value = "withNodes", defaultValue = "true") Boolean withNodes) {
+        if (distance < 1) return Stream.empty();
 
-                    // Combine next
-                    for (int j = 0; j < THREADS; j++) {
-                        nextOdd[THREADS].or(nextOdd[j]);
-                        nextOdd[j].clear();
-                    }
+        if (startingNode == null) {
+            return Stream.empty();
+        } else {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(khopsStream(startingNode, distance, relationshipTypes, withNodes, null),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+    }
 
-                    // Redistribute next
-                    index.set(0);
-                    nextOdd[THREADS].andNot(seen);
-                    seen.or(nextOdd[THREADS]);
-                    nextOdd[THREADS].forEach(l -> nextOdd[(int)(index.getAndIncrement() % THREADS)].add(l));
+    private NeighbourhoodIterator khopsStream(Node startingNode, Long distance, List<String> relationshipTypes, Boolean withNodes,
+                                              TraversalProfile profile) {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
 
-                    // Next odd Hop
-                    for (int j = 0; j < THREADS; j++) {
-                        nextEven[j].clear();
-                        service.submit(new NextHop(db, log, nextEven[j], nextOdd[j], types, ph));
-                    }
+        Step step = Step.of(tokenRead, relationshipTypes);
 
-                    // Wait until all have finished
-                    ph.arriveAndAwaitAdvance();
+        return new NeighbourhoodIterator(ktx.dataRead(), ktx.cursors(),
+                startingNode.getId(), distance, step, withNodes, NodeIds.highId(db), TraversalBudget.unlimited(db), profile);
+    }
 
-                }
+    @Procedure(name = "com.maxdemarzi.khops.batch", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.batch(List<Node> nodes, Long distance, List<String> relationshipTypes)")
+    public Stream<NodeLongResult> khopsBatch(@Name("startingNodes") List<Node> startingNodes,
+                                             @Name(value = "distance", defaultValue = "1") Long distance,
+                                             @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) {
+        if (distance < 1 || startingNodes == null) return Stream.empty();
+
+        List<Node> nodes = new ArrayList<>(startingNodes.size());
+        for (Node node : startingNodes) {
+            if (node != null) {
+                nodes.add(node);
             }
+        }
+        if (nodes.isEmpty()) return Stream.empty();
 
-            if ((distance % 2) == 0) {
-                for (int j = 0; j < THREADS; j++) {
-                    seen.or(nextOdd[j]);
-                }
-            } else {
-                for (int j = 0; j < THREADS; j++) {
-                    seen.or(nextEven[j]);
-                }
-            }
+        return khopsBatch(nodes, distance, relationshipTypes, null).stream();
+    }
 
-            ph.arriveAndDeregister();
+    // A profiled batch runs on the calling thread, one batch of 64 after the other
+    private List<NodeLongResult> khopsBatch(List<Node> nodes, Long distance, List<String> relationshipTypes, TraversalProfile profile) {
+        long started = System.nanoTime();
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
 
-            // remove starting node
-            seen.removeLong(startingNode.getId());
+        Step step = Step.of(tokenRead, relationshipTypes);
 
-            return Stream.of(new LongResult(seen.getLongCardinality()));
+        long[] sources = new long[nodes.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = nodes.get(i).getId();
+        }
+        long[] counts = new long[sources.length];
+
+        TraversalPool pool = TraversalPool.get(db);
+        if (profile == null && pool.admit(ktx)) {
+            try {
+                pool.invoke(new MultiSourceHops(db, log, sources, 0, sources.length, distance, step, counts));
+            } finally {
+                pool.release();
+            }
+        } else {
+            // Too many parallel traversals running, or uncommitted changes the workers would not see,
+            // do the batches one after another on the calling thread
+            for (int from = 0; from < sources.length; from += MultiSourceHops.WIDTH) {
+                MultiSourceHops.count(ktx.dataRead(), ktx.cursors(), sources, from,
+                        Math.min(from + MultiSourceHops.WIDTH, sources.length), distance, step, counts, profile);
+            }
+        }
 
+        List<NodeLongResult> results = new ArrayList<>(sources.length);
+        long total = 0;
+        for (int i = 0; i < sources.length; i++) {
+            results.add(new NodeLongResult(nodes.get(i), counts[i]));
+            total += counts[i];
         }
+        KHopsMetrics.get(db).record(KHopsMetrics.BATCH, started, total, false, false);
+        return results;
     }
 
-    private void nextHop(Read read, Roaring64NavigableMap seen, Roaring64NavigableMap next,
-                         Roaring64NavigableMap current, int[] types, CursorFactory cursors) {
+    private void nextHop(Read read, NodeSet seen, NodeSet next, NodeSet current, Step step, CursorFactory cursors,
+                         Expansion neighbours, LabelFilter filter, DirectionOptimizer optimizer, TraversalBudget budget,
+                         TraversalProfile profile) {
+        TraversalProfile.Hop previous = profile == null ? null : profile.last();
+        long merge = previous == null ? 0 : System.nanoTime();
+        long peak = previous == null ? 0 : seen.bytes() + current.bytes() + next.bytes();
         current.andNot(seen);
         seen.or(current);
         next.clear();
-        RelationshipTraversalCursor rels = cursors.allocateRelationshipTraversalCursor();
-        NodeCursor nodeCursor = cursors.allocateNodeCursor();
+        // Once the frontier explodes the sets are cheaper to hold, and to probe, as bitsets
+        current.adapt();
+        seen.adapt();
+        budget.spill(seen, current, next);
+        if (previous != null) {
+            previous.merged(System.nanoTime() - merge, current.cardinality(), peak);
+        }
+        // Nodes the filter doesn't go through are seen, but never expanded
+        if (filter != null) {
+            filter.prune(current);
+        }
 
-        current.forEach(nodeId -> {
-            read.singleNode(nodeId, nodeCursor);
-            nodeCursor.next();
+        if (!budget.check(seen.cardinality(), seen.bytes() + current.bytes())) {
+            return;
+        }
 
-            if (types.length == 0) {
-                nodeCursor.allRelationships(rels);
-                while (rels.next()) {
-                    next.add(rels.neighbourNodeReference());
-                }
-            } else {
-                RelationshipSelectionCursor typedRels = RelationshipSelections.allCursor(cursors, nodeCursor, types);
-                while (typedRels.next()) {
-                    next.add(typedRels.otherNodeReference());
+        // Frontier covers enough of the graph that it is cheaper to search for it from the unvisited nodes
+        if (optimizer.bottomUp(current.cardinality(), seen.cardinality())) {
+            TraversalProfile.Hop hop = profile == null ? null : profile.next(TraversalProfile.BOTTOM_UP, current.cardinality());
+            long expansion = hop == null ? 0 : System.nanoTime();
+            BottomUp.scan(read, cursors, seen, current, next, step, budget);
+            if (hop != null) {
+                long nanos = System.nanoTime() - expansion;
+                hop.expanded(nanos, null);
+                hop.worked(nanos);
+            }
+            return;
+        }
+
+        TraversalProfile.Hop hop = profile == null ? null : profile.next(TraversalProfile.TOP_DOWN, current.cardinality());
+        long expansion = hop == null ? 0 : System.nanoTime();
+        long relationships = 0;
+        long expanded = 0;
+
+        neighbours.follow(step);
+        PrimitiveIterator.OfLong iterator = current.iterator();
+        while (iterator.hasNext()) {
+            if (++expanded % TraversalBudget.CHECK_INTERVAL == 0) {
+                // The next frontier can explode within the hop, not only between hops
+                next.adapt();
+                budget.spill(seen, current, next);
+                if (!budget.check(seen.cardinality() + next.cardinality(), seen.bytes() + current.bytes() + next.bytes())) {
+                    break;
                 }
             }
-        });
+            neighbours.select(iterator.nextLong());
+            while (neighbours.next()) {
+                next.add(neighbours.neighbour());
+                relationships++;
+            }
+        }
+        optimizer.scanned(current.cardinality(), relationships);
+        if (hop != null) {
+            long nanos = System.nanoTime() - expansion;
+            hop.expanded(nanos, relationships);
+            hop.worked(nanos);
+        }
     }
 
 }
-
@@ -0,0 +1,376 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In memory copy of the graph's relationships as compressed sparse rows held off heap.
+ * For every projected relationship type there is an outgoing and an incoming adjacency,
+ * the neighbours of node n are targets[offsets[n], offsets[n + 1]).
+ * It is a snapshot: relationships written after it was loaded are not seen until it is loaded again.
+ * Only com.maxdemarzi.projection.khops traverses it, the other procedures always read the store.
+ */
+public class Projection {
+    public static final int OUTGOING = 0;
+    public static final int INCOMING = 1;
+
+    // Node ranges per worker of the pool while loading, so workers that finish early can steal more
+    private static final int RANGES_PER_WORKER = 16;
+
+    private final long highId;
+    private final boolean allTypes;
+    private final Map<Integer, Adjacency[]> adjacencies;
+
+    public static class Adjacency {
+        final OffHeapArray offsets;
+        final OffHeapArray targets;
+
+        Adjacency(OffHeapArray offsets, OffHeapArray targets) {
+            this.offsets = offsets;
+            this.targets = targets;
+        }
+
+        public long start(long nodeId) {
+            return offsets.get(nodeId);
+        }
+
+        public long end(long nodeId) {
+            return offsets.get(nodeId + 1);
+        }
+
+        public long target(long index) {
+            return targets.get(index);
+        }
+
+        public long relationships() {
+            return targets.length();
+        }
+
+        public long bytes() {
+            return offsets.bytes() + targets.bytes();
+        }
+    }
+
+    private Projection(long highId, boolean allTypes, Map<Integer, Adjacency[]> adjacencies) {
+        this.highId = highId;
+        this.allTypes = allTypes;
+        this.adjacencies = adjacencies;
+    }
+
+    /**
+     * Builds a projection of the given relationship types on the traversal pool, with the node ids
+     * split into ranges for its workers, and replaces the one the database held with it.
+     * The offsets are checked against the free direct memory before anything is allocated, the
+     * targets once the degrees are counted, and the build takes a slot of the pool while it runs.
+     */
+    public static Projection load(TraversalPool pool, GraphDatabaseService db, Log log, int[] types, boolean allTypes) {
+        long highId = NodeIds.highId(db);
+        long range = Math.max(pool.chunkSize(), highId / ((long) pool.parallelism() * RANGES_PER_WORKER));
+
+        long bytes = 2L * types.length * (highId + 1) * Long.BYTES;
+        long free = OffHeapArray.free();
+        if (bytes > free) {
+            throw new IllegalArgumentException("Projecting " + types.length + " relationship types of " + highId + " nodes needs "
+                    + bytes + " bytes of direct memory for the offsets alone, " + free + " are free. Project fewer types, "
+                    + "or raise -XX:MaxDirectMemorySize");
+        }
+        if (!pool.admit()) {
+            throw new IllegalStateException("Too many parallel traversals running, try com.maxdemarzi.projection.load again later");
+        }
+        Load load;
+        try {
+            load = new Load(db, types, highId, range);
+            pool.invoke(load.new Pass(false, 0, load.ranges));
+            load.allocate();
+            pool.invoke(load.new Pass(true, 0, load.ranges));
+        } finally {
+            pool.release();
+        }
+
+        Map<Integer, Adjacency[]> adjacencies = new HashMap<>();
+        for (int i = 0; i < types.length; i++) {
+            adjacencies.put(types[i], new Adjacency[]{load.adjacency(2 * i + OUTGOING), load.adjacency(2 * i + INCOMING)});
+        }
+
+        Projection projection = new Projection(highId, allTypes, adjacencies);
+        KHopsExtension.get(db).projection(projection);
+        log.info("Loaded k-hop projection of " + projection.relationships() + " relationships using " + projection.bytes()
+                + " bytes in " + load.ranges + " node ranges");
+        return projection;
+    }
+
+    /**
+     * The adjacencies the step follows. A step following types it does not name, every relationship
+     * when it names none, is only possible if every type was projected.
+     */
+    public Adjacency[] select(Step step) {
+        if (step.any() != 0 && !allTypes) {
+            throw new IllegalStateException("The projection does not hold every relationship type, reload it without types to traverse them all");
+        }
+        for (int type : step.types()) {
+            // Unknown types have no relationships to follow
+            if (type != TokenRead.NO_TOKEN && !adjacencies.containsKey(type)) {
+                throw new IllegalStateException("Relationship type " + type + " is not in the projection, reload it with com.maxdemarzi.projection.load");
+            }
+        }
+        List<Adjacency> selected = new ArrayList<>();
+        for (Map.Entry<Integer, Adjacency[]> entry : adjacencies.entrySet()) {
+            int direction = step.direction(entry.getKey());
+            if ((direction & Step.OUTGOING) != 0) selected.add(entry.getValue()[OUTGOING]);
+            if ((direction & Step.INCOMING) != 0) selected.add(entry.getValue()[INCOMING]);
+        }
+        return selected.toArray(new Adjacency[0]);
+    }
+
+    /**
+     * Every node within distance of the starting node, the starting node included,
+     * following only the selected adjacencies.
+     */
+    public Roaring64NavigableMap khops(long nodeId, long distance, Adjacency[] selected) {
+        Roaring64NavigableMap seen = new Roaring64NavigableMap();
+        Roaring64NavigableMap frontier = new Roaring64NavigableMap();
+        seen.add(nodeId);
+        frontier.add(nodeId);
+
+        for (int i = 0; i < distance && !frontier.isEmpty(); i++) {
+            Roaring64NavigableMap next = new Roaring64NavigableMap();
+            LongIterator iterator = frontier.getLongIterator();
+            while (iterator.hasNext()) {
+                long node = iterator.next();
+                if (!contains(node)) continue;
+                for (Adjacency adjacency : selected) {
+                    for (long index = adjacency.start(node), end = adjacency.end(node); index < end; index++) {
+                        next.add(adjacency.target(index));
+                    }
+                }
+            }
+            next.andNot(seen);
+            seen.or(next);
+            frontier = next;
+        }
+        return seen;
+    }
+
+    // Nodes created after the projection was loaded have no relationships in it
+    public boolean contains(long nodeId) {
+        return nodeId >= 0 && nodeId < highId;
+    }
+
+    public long highId() {
+        return highId;
+    }
+
+    public List<Integer> types() {
+        return new ArrayList<>(adjacencies.keySet());
+    }
+
+    public long relationships() {
+        long relationships = 0;
+        for (Adjacency[] adjacency : adjacencies.values()) {
+            relationships += adjacency[OUTGOING].relationships();
+        }
+        return relationships;
+    }
+
+    public long bytes() {
+        long bytes = 0;
+        for (Adjacency[] adjacency : adjacencies.values()) {
+            bytes += adjacency[OUTGOING].bytes() + adjacency[INCOMING].bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds the outgoing and incoming adjacency of every projected relationship type from two passes
+     * over the relationships of the nodes, one range of node ids per task: one to count the degrees,
+     * one to place the neighbours. A task only writes the offsets and targets of the nodes in its range.
+     */
+    static class Load {
+        private final GraphDatabaseService db;
+        private final long highId;
+        private final long range;
+        private final int ranges;
+        // Array of every projected type, 2 * i + direction for the i-th type, -1 for the other types
+        private final int[] arrays;
+        private final OffHeapArray[] offsets;
+        private final OffHeapArray[] targets;
+        // Neighbours of the nodes of every range in every array, then where the range starts in its targets
+        private final long[][] totals;
+
+        Load(GraphDatabaseService db, int[] types, long highId, long range) {
+            this.db = db;
+            this.highId = highId;
+            this.range = range;
+            this.ranges = (int) Math.max(1, (highId + range - 1) / range);
+
+            int max = -1;
+            for (int type : types) {
+                max = Math.max(max, type);
+            }
+            this.arrays = new int[max + 1];
+            Arrays.fill(arrays, -1);
+            for (int i = 0; i < types.length; i++) {
+                arrays[types[i]] = 2 * i;
+            }
+
+            this.offsets = new OffHeapArray[2 * types.length];
+            this.targets = new OffHeapArray[2 * types.length];
+            this.totals = new long[2 * types.length][ranges];
+            for (int a = 0; a < offsets.length; a++) {
+                offsets[a] = new OffHeapArray(highId + 1, Long.BYTES);
+            }
+        }
+
+        // Once the degrees are counted, sizes the targets and turns the totals into the start of every range
+        void allocate() {
+            int width = highId <= Integer.MAX_VALUE ? Integer.BYTES : Long.BYTES;
+            long[] lengths = new long[totals.length];
+            long bytes = 0;
+            for (int a = 0; a < totals.length; a++) {
+                for (int r = 0; r < ranges; r++) {
+                    long total = totals[a][r];
+                    totals[a][r] = lengths[a];
+                    lengths[a] += total;
+                }
+                bytes += lengths[a] * width;
+            }
+            long free = OffHeapArray.free();
+            if (bytes > free) {
+                throw new IllegalArgumentException("Projecting the relationships of " + highId + " nodes needs " + bytes
+                        + " more bytes of direct memory for their targets, " + free + " are free. Project fewer types, "
+                        + "or raise -XX:MaxDirectMemorySize");
+            }
+            for (int a = 0; a < totals.length; a++) {
+                targets[a] = new OffHeapArray(lengths[a], width);
+            }
+        }
+
+        Adjacency adjacency(int array) {
+            return new Adjacency(offsets[array], targets[array]);
+        }
+
+        private int array(int type) {
+            return type < arrays.length ? arrays[type] : -1;
+        }
+
+        /**
+         * Counts the degrees of the nodes in the ranges [from, to) into offsets[n + 1], or, once
+         * allocated, turns them into offsets and places the neighbours.
+         */
+        final class Pass extends RecursiveAction {
+            private final boolean place;
+            private final int from;
+            private final int to;
+
+            Pass(boolean place, int from, int to) {
+                this.place = place;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Pass(place, from, middle), new Pass(place, middle, to));
+                    return;
+                }
+
+                try (Transaction tx = db.beginTx()) {
+                    DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+                    final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+                    KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+                    Read read = ktx.dataRead();
+                    try (NodeCursor nodeCursor = ktx.cursors().allocateNodeCursor();
+                         RelationshipTraversalCursor relationships = ktx.cursors().allocateRelationshipTraversalCursor()) {
+                        if (place) {
+                            place(read, nodeCursor, relationships);
+                        } else {
+                            count(read, nodeCursor, relationships);
+                        }
+                    }
+                }
+            }
+
+            private void count(Read read, NodeCursor nodeCursor, RelationshipTraversalCursor relationships) {
+                long[] degrees = new long[offsets.length];
+                for (long n = from * range, end = Math.min((from + 1) * range, highId); n < end; n++) {
+                    read.singleNode(n, nodeCursor);
+                    if (!nodeCursor.next()) {
+                        continue;
+                    }
+                    Arrays.fill(degrees, 0);
+                    nodeCursor.allRelationships(relationships);
+                    while (relationships.next()) {
+                        int a = array(relationships.type());
+                        if (a < 0) continue;
+                        long source = relationships.sourceNodeReference();
+                        long target = relationships.targetNodeReference();
+                        // A loop is both an outgoing and an incoming neighbour of its node
+                        if (source == n && target < highId) degrees[a + OUTGOING]++;
+                        if (target == n && source < highId) degrees[a + INCOMING]++;
+                    }
+                    for (int a = 0; a < degrees.length; a++) {
+                        offsets[a].set(n + 1, degrees[a]);
+                        totals[a][from] += degrees[a];
+                    }
+                }
+            }
+
+            private void place(Read read, NodeCursor nodeCursor, RelationshipTraversalCursor relationships) {
+                long[] positions = new long[offsets.length];
+                long[] ends = new long[offsets.length];
+                for (int a = 0; a < positions.length; a++) {
+                    positions[a] = totals[a][from];
+                }
+                for (long n = from * range, end = Math.min((from + 1) * range, highId); n < end; n++) {
+                    for (int a = 0; a < ends.length; a++) {
+                        ends[a] = positions[a] + offsets[a].get(n + 1);
+                        offsets[a].set(n + 1, ends[a]);
+                    }
+
+                    read.singleNode(n, nodeCursor);
+                    if (nodeCursor.next()) {
+                        nodeCursor.allRelationships(relationships);
+                        while (relationships.next()) {
+                            int a = array(relationships.type());
+                            if (a < 0) continue;
+                            long source = relationships.sourceNodeReference();
+                            long target = relationships.targetNodeReference();
+                            // Relationships created since the degrees were counted are skipped
+                            if (source == n && target < highId && positions[a + OUTGOING] < ends[a + OUTGOING]) {
+                                targets[a + OUTGOING].set(positions[a + OUTGOING]++, target);
+                            }
+                            if (target == n && source < highId && positions[a + INCOMING] < ends[a + INCOMING]) {
+                                targets[a + INCOMING].set(positions[a + INCOMING]++, source);
+                            }
+                        }
+                    }
+
+                    // Relationships deleted since the degrees were counted leave free slots, point them back
+                    // at their own node, which every traversal has already seen when it expands it
+                    for (int a = 0; a < ends.length; a++) {
+                        for (; positions[a] < ends[a]; positions[a]++) {
+                            targets[a].set(positions[a], n);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
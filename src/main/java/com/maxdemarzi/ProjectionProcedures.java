@@ -0,0 +1,101 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.LongResult;
+import com.maxdemarzi.results.ProjectionResult;
+import org.neo4j.graphdb.*;
+import org.neo4j.internal.kernel.api.NamedToken;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.internal.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+public class ProjectionProcedures {
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.projection.load", mode = Mode.READ)
+    @Description("com.maxdemarzi.projection.load(List<String> relationshipTypes) - loads or refreshes the off heap adjacency used by com.maxdemarzi.projection.khops")
+    public Stream<ProjectionResult> load(@Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) throws KernelException {
+        TokenRead tokenRead = kernelTransaction().tokenRead();
+
+        int[] types;
+        if (relationshipTypes.isEmpty()) {
+            List<Integer> all = new ArrayList<>();
+            Iterator<NamedToken> tokens = tokenRead.relationshipTypesGetAllTokens();
+            while (tokens.hasNext()) {
+                all.add(tokens.next().id());
+            }
+            types = all.stream().mapToInt(Integer::intValue).toArray();
+        } else {
+            types = new int[relationshipTypes.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = tokenRead.relationshipType(relationshipTypes.get(i));
+                if (types[i] == TokenRead.NO_TOKEN) {
+                    throw new IllegalArgumentException("Unknown relationship type " + relationshipTypes.get(i));
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Projection projection = Projection.load(TraversalPool.get(db), db, log, types, relationshipTypes.isEmpty());
+        return Stream.of(result(projection, tokenRead, System.currentTimeMillis() - start));
+    }
+
+    @Procedure(name = "com.maxdemarzi.projection.info", mode = Mode.READ)
+    @Description("com.maxdemarzi.projection.info() - size and memory use of the loaded projection")
+    public Stream<ProjectionResult> info() throws KernelException {
+        Projection projection = KHopsExtension.get(db).projection();
+        if (projection == null) return Stream.empty();
+        return Stream.of(result(projection, kernelTransaction().tokenRead(), 0L));
+    }
+
+    @Procedure(name = "com.maxdemarzi.projection.khops", mode = Mode.READ)
+    @Description("com.maxdemarzi.projection.khops(Node node, Long distance, List<String> relationshipTypes) - counts on the loaded projection instead of the store")
+    public Stream<LongResult> khops(@Name("startingNode") Node startingNode,
+                                    @Name(value = "distance", defaultValue = "1") Long distance,
+                                    @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes) {
+        if (distance < 1) return Stream.empty();
+
+        if (startingNode == null) {
+            return Stream.empty();
+        } else {
+            Projection projection = KHopsExtension.get(db).projection();
+            if (projection == null) {
+                throw new IllegalStateException("No projection loaded, call com.maxdemarzi.projection.load first");
+            }
+
+            Step step = Step.of(kernelTransaction().tokenRead(), relationshipTypes);
+            Roaring64NavigableMap seen = projection.khops(startingNode.getId(), distance, projection.select(step));
+
+            // remove starting node
+            seen.removeLong(startingNode.getId());
+
+            return Stream.of(new LongResult(seen.getLongCardinality()));
+        }
+    }
+
+    private KernelTransaction kernelTransaction() {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        return ctx.getKernelTransactionBoundToThisThread(true);
+    }
+
+    private static ProjectionResult result(Projection projection, TokenRead tokenRead, long millis) throws KernelException {
+        List<String> names = new ArrayList<>();
+        for (int type : projection.types()) {
+            names.add(tokenRead.relationshipTypeName(type));
+        }
+        return new ProjectionResult(names, projection.highId(), projection.relationships(), projection.bytes(), millis);
+    }
+}
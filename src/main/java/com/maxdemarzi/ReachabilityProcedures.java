@@ -0,0 +1,76 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.OverlapResult;
+import com.maxdemarzi.results.ReachableResult;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ReachabilityProcedures {
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.khops.reachable", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.reachable(Node a, Node b, Long distance, List<String> relationshipTypes, Map limits) - whether b is within distance hops of a, and how far")
+    public Stream<ReachableResult> reachable(@Name("a") Node a, @Name("b") Node b,
+                                             @Name(value = "distance", defaultValue = "1") Long distance,
+                                             @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                             @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits) {
+        if (distance < 0 || a == null || b == null) return Stream.empty();
+
+        KernelTransaction ktx = ktx();
+        TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
+        Bidirectional bidirectional = new Bidirectional(ktx.dataRead(), ktx.cursors(), Step.of(ktx.tokenRead(), relationshipTypes),
+                NodeIds.highId(db), budget);
+        long found = bidirectional.distance(a.getId(), b.getId(), distance);
+        if (budget.exhausted()) {
+            log.debug("khops.reachable stopped early, " + budget.exceeded() + " limit reached");
+        }
+        return Stream.of(new ReachableResult(found, budget.exceeded()));
+    }
+
+    @Procedure(name = "com.maxdemarzi.khops.overlap", mode = Mode.READ)
+    @Description("com.maxdemarzi.khops.overlap(Node a, Node b, Long distance, List<String> relationshipTypes, Map limits) - the k-hop counts of a and b and how many nodes they share")
+    public Stream<OverlapResult> overlap(@Name("a") Node a, @Name("b") Node b,
+                                         @Name(value = "distance", defaultValue = "1") Long distance,
+                                         @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                         @Name(value = "limits", defaultValue = "{}") Map<String, Object> limits) {
+        if (distance < 1 || a == null || b == null) return Stream.empty();
+
+        KernelTransaction ktx = ktx();
+        TraversalBudget budget = TraversalBudget.of(db, ktx, limits);
+        Bidirectional bidirectional = new Bidirectional(ktx.dataRead(), ktx.cursors(), Step.of(ktx.tokenRead(), relationshipTypes),
+                NodeIds.highId(db), budget);
+        NodeSet fromA = bidirectional.neighbourhood(a.getId(), distance);
+        NodeSet fromB = bidirectional.neighbourhood(b.getId(), distance);
+
+        // Neither count includes its own starting node, the overlap doesn't either
+        long overlap = fromA.andCardinality(fromB);
+        if (a.getId() == b.getId()) {
+            overlap--;
+        } else {
+            overlap -= (fromB.contains(a.getId()) ? 1 : 0) + (fromA.contains(b.getId()) ? 1 : 0);
+        }
+        if (budget.exhausted()) {
+            log.debug("khops.overlap stopped early, " + budget.exceeded() + " limit reached");
+        }
+        return Stream.of(new OverlapResult(fromA.cardinality() - 1, fromB.cardinality() - 1, overlap, budget.exceeded()));
+    }
+
+    private KernelTransaction ktx() {
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        return ctx.getKernelTransactionBoundToThisThread(true);
+    }
+}
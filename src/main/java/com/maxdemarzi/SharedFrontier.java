@@ -0,0 +1,176 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.logging.Log;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The frontier and seen set of a parallel traversal, with one seen set shared by every worker.
+ * A worker claims each neighbour in the seen set as it finds it, and only the worker that claims
+ * a node puts it in the next frontier, so no node is expanded twice and a hop ends without a merge
+ * step: the next frontier is the nodes the workers claimed.
+ * The seen set is a bit per node id in the store, whatever the size of the traversal, and stays on
+ * the heap since every worker claims in it. The frontier and the outboxes spill against the budget.
+ */
+public class SharedFrontier implements Frontier {
+    private final long highId;
+    private final ConcurrentNodeSet seen;
+    private NodeSet current;
+    private final LongAdder scanned = new LongAdder();
+
+    public SharedFrontier(long highId) {
+        this.highId = highId;
+        this.seen = new ConcurrentNodeSet(highId);
+        this.current = NodeSet.sparse(highId);
+    }
+
+    @Override
+    public void seed(long nodeId) {
+        if (seen.claim(nodeId)) {
+            current.add(nodeId);
+        }
+    }
+
+    @Override
+    public void load(NodeSet seen, NodeSet frontier) {
+        PrimitiveIterator.OfLong nodes = seen.iterator();
+        while (nodes.hasNext()) {
+            this.seen.claim(nodes.nextLong());
+        }
+        current = NodeSet.sparse(highId);
+        current.or(frontier);
+    }
+
+    @Override
+    public void prune(LabelFilter filter) {
+        filter.prune(current);
+    }
+
+    /**
+     * Expands the frontier in parallel, every task keeping the neighbours it claimed.
+     * A profiled hop records the time spent gathering them as its merge time.
+     */
+    @Override
+    public void hop(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+                    TraversalProfile.Hop hop) {
+        scanned.reset();
+        budget.spill(Collections.singletonList(current));
+        long started = System.nanoTime();
+        long[] nodes = current.toArray();
+        Claimed next = (Claimed) pool.invoke(new NextHop(db, log, nodes, 0, nodes.length, step, () -> new Claimed(seen, highId),
+                pool.chunkSize(), pool.splitDegree(), scanned, budget, hop));
+        long expanded = System.nanoTime();
+        if (hop != null) {
+            hop.bytes(next.bytes() + current.bytes());
+        }
+        current = next.claimed;
+        if (hop != null) {
+            hop.expanded(expanded - started, scanned.sum());
+            hop.merged(System.nanoTime() - expanded, current.cardinality(), bytes());
+        }
+    }
+
+    /**
+     * Bottom-up hop: the unvisited ids are scanned one block per task against the frontier,
+     * and the nodes found are claimed once the scan is done.
+     */
+    @Override
+    public void bottomUp(TraversalPool pool, GraphDatabaseService db, Log log, Step step, TraversalBudget budget,
+                         TraversalProfile.Hop hop) {
+        budget.spill(Collections.singletonList(current));
+        long started = System.nanoTime();
+        current.adapt();
+
+        long blocks = (highId >>> PartitionedFrontier.BLOCK_SHIFT) + 1;
+        NodeSet found = pool.invoke(new BottomUp(db, log, seen::contains, new NodeSet[]{current}, step,
+                0, 0, blocks, highId, budget, hop));
+        long scanned = System.nanoTime();
+        long bytes = current.bytes();
+        current = found;
+        PrimitiveIterator.OfLong nodes = current.iterator();
+        while (nodes.hasNext()) {
+            seen.claim(nodes.nextLong());
+        }
+        if (hop != null) {
+            hop.expanded(scanned - started, null);
+            hop.merged(System.nanoTime() - scanned, current.cardinality(), bytes() + bytes);
+        }
+    }
+
+    @Override
+    public long scanned() {
+        return scanned.sum();
+    }
+
+    @Override
+    public long frontierCount() {
+        return current.cardinality();
+    }
+
+    @Override
+    public Roaring64NavigableMap seen() {
+        return seen.toRoaring64();
+    }
+
+    @Override
+    public long seenCount() {
+        return seen.cardinality();
+    }
+
+    @Override
+    public long bytes() {
+        return seen.bytes() + current.bytes();
+    }
+
+    /**
+     * The neighbours one expansion task claimed. No other task claimed them.
+     */
+    static final class Claimed implements Outbox {
+        private final ConcurrentNodeSet seen;
+        private final NodeSet claimed;
+
+        Claimed(ConcurrentNodeSet seen, long highId) {
+            this.seen = seen;
+            this.claimed = NodeSet.sparse(highId);
+        }
+
+        @Override
+        public void add(long nodeId) {
+            if (seen.claim(nodeId)) {
+                claimed.add(nodeId);
+            }
+        }
+
+        @Override
+        public void merge(Outbox other) {
+            claimed.or(((Claimed) other).claimed);
+        }
+
+        // The shared seen set, what every worker has claimed so far
+        @Override
+        public long visited() {
+            return seen.cardinality();
+        }
+
+        @Override
+        public long bytes() {
+            return seen.bytes() + claimed.bytes();
+        }
+
+        @Override
+        public void spill(long bytes, File directory) {
+            if (claimed.heapBytes() > bytes) {
+                claimed.spill(directory);
+            }
+        }
+
+        long[] toArray() {
+            return claimed.toArray();
+        }
+    }
+}
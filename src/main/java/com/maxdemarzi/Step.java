@@ -0,0 +1,156 @@
+package com.maxdemarzi;
+
+import org.neo4j.internal.kernel.api.TokenRead;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The relationships one hop follows, by type and direction. Types are given by name:
+ * {@code KNOWS} follows KNOWS relationships both ways, {@code KNOWS>} only the outgoing ones and
+ * {@code <KNOWS} only the incoming ones, while {@code >} and {@code <} alone follow every type one
+ * way. No names at all follow every relationship. A dense node only has the chains of the
+ * directions followed read, the others are skipped with their groups.
+ */
+public final class Step {
+    static final int OUTGOING = 1;
+    static final int INCOMING = 2;
+    static final int BOTH = OUTGOING | INCOMING;
+
+    static final Step ALL = new Step(new int[0], new int[0], BOTH);
+
+    private final int[] types;
+    private final int[] directions;
+    // Directions of the types not given by name
+    private final int any;
+
+    private Step(int[] types, int[] directions, int any) {
+        this.types = types;
+        this.directions = directions;
+        this.any = any;
+    }
+
+    public static Step of(TokenRead tokenRead, List<String> names) {
+        if (names.isEmpty()) {
+            return ALL;
+        }
+        int[] types = new int[names.size()];
+        int[] directions = new int[names.size()];
+        int count = 0;
+        int any = 0;
+        for (String name : names) {
+            String type = name.trim();
+            int direction = BOTH;
+            if (type.startsWith("<") && !type.endsWith(">")) {
+                direction = INCOMING;
+            } else if (type.endsWith(">") && !type.startsWith("<")) {
+                direction = OUTGOING;
+            }
+            type = type.replaceAll("^<|>$", "");
+            if (type.isEmpty()) {
+                any |= direction;
+                continue;
+            }
+            // A type no relationship ever had matches nothing, a type given twice follows both directions given.
+            // Kept in type order, so the same step given in any order is equal to itself
+            int id = tokenRead.relationshipType(type);
+            int i = 0;
+            while (i < count && types[i] < id) {
+                i++;
+            }
+            if (i == count || types[i] != id) {
+                System.arraycopy(types, i, types, i + 1, count - i);
+                System.arraycopy(directions, i, directions, i + 1, count - i);
+                types[i] = id;
+                directions[i] = 0;
+                count++;
+            }
+            directions[i] |= direction;
+        }
+        if (any == BOTH) {
+            return ALL;
+        }
+        return new Step(Arrays.copyOf(types, count), Arrays.copyOf(directions, count), any);
+    }
+
+    // Whether any of the names gives a direction
+    static boolean directed(List<String> names) {
+        for (String name : names) {
+            String type = name.trim();
+            if (type.startsWith("<") || type.endsWith(">")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Types already resolved, followed both ways
+    public static Step of(int[] types) {
+        if (types.length == 0) {
+            return ALL;
+        }
+        int[] directions = new int[types.length];
+        Arrays.fill(directions, BOTH);
+        return new Step(types, directions, 0);
+    }
+
+    // Whether every relationship is followed, so none has to be looked at
+    boolean all() {
+        return any == BOTH;
+    }
+
+    // Directions relationships of the type are followed in, 0 when they are not
+    int direction(int type) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == type) {
+                return any | directions[i];
+            }
+        }
+        return any;
+    }
+
+    // Whether the relationship of the type between source and target is followed from the node
+    boolean follows(int type, long source, long target, long nodeId) {
+        int direction = direction(type);
+        return direction == BOTH
+                || ((direction & OUTGOING) != 0 && source == nodeId)
+                || ((direction & INCOMING) != 0 && target == nodeId);
+    }
+
+    int[] types() {
+        return types;
+    }
+
+    int any() {
+        return any;
+    }
+
+    /**
+     * The same relationships followed from their other end, for a bottom-up hop that looks for
+     * the nodes the frontier would have reached.
+     */
+    Step reverse() {
+        int[] reversed = new int[directions.length];
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = reverse(directions[i]);
+        }
+        return new Step(types, reversed, reverse(any));
+    }
+
+    private static int reverse(int direction) {
+        return (direction & OUTGOING) << 1 | (direction & INCOMING) >> 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Step step = (Step) o;
+        return any == step.any && Arrays.equals(types, step.types) && Arrays.equals(directions, step.directions);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(types) + Arrays.hashCode(directions)) + any;
+    }
+}
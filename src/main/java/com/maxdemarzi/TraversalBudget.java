@@ -0,0 +1,181 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.api.KernelTransaction;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Limits on how many nodes a single traversal may visit, how large its bitmaps may grow and how
+ * long it may run. The hop loops check it every {@link #CHECK_INTERVAL} nodes, along with the
+ * termination of the calling transaction. Once a limit is hit the budget stays exhausted, so every
+ * worker of the traversal stops at its next check and the nodes found so far are returned as a
+ * partial result.
+ * The instance wide limits come from the {@link KHopsSettings} of the database, held by its
+ * {@link KHopsExtension}; a call can only make them tighter.
+ * The budget also holds the heap the sets of the traversal may take together before the largest of
+ * them spill to memory mapped files: its seen sets and frontiers, and the outboxes of its workers.
+ * What the seen sets and frontiers leave of it is shared by every outbox of the hop not merged yet.
+ */
+public class TraversalBudget {
+    public static final String VISITED = "visited";
+    public static final String MEMORY = "memory";
+    public static final String TIME = "time";
+    public static final String TERMINATED = "terminated";
+
+    static final int CHECK_INTERVAL = 1024;
+
+    public static final TraversalBudget UNLIMITED = new TraversalBudget(null, 0, 0, 0);
+
+    private final KernelTransaction ktx;
+    private final long maxVisited;
+    private final long maxBytes;
+    private final long deadline;
+    private final long spillBytes;
+    private final File spillDirectory;
+    private volatile String exceeded;
+    // Heap the seen sets and frontiers took at the last spill, and the outboxes sharing what is left
+    private volatile long held;
+    private final AtomicInteger outboxes = new AtomicInteger();
+
+    TraversalBudget(KernelTransaction ktx, long maxVisited, long maxBytes, long maxMillis) {
+        this(ktx, maxVisited, maxBytes, maxMillis, 0, null);
+    }
+
+    TraversalBudget(KernelTransaction ktx, long maxVisited, long maxBytes, long maxMillis, long spillBytes, File spillDirectory) {
+        this.ktx = ktx;
+        this.maxVisited = maxVisited;
+        this.maxBytes = maxBytes;
+        this.deadline = maxMillis > 0 ? System.nanoTime() + maxMillis * 1_000_000 : 0;
+        this.spillBytes = spillBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    // No limits, the sets still spill past the instance wide threshold of the database
+    static TraversalBudget unlimited(GraphDatabaseService db) {
+        KHopsExtension extension = KHopsExtension.get(db);
+        return new TraversalBudget(null, 0, 0, 0, extension.spillThreshold(), extension.spillDirectory());
+    }
+
+    /**
+     * The budget of a traversal run by the given transaction against the database, with the per call
+     * limits maxVisited (nodes), maxMemory (bytes) and maxTime (milliseconds), 0 meaning no limit.
+     */
+    public static TraversalBudget of(GraphDatabaseService db, KernelTransaction ktx, Map<String, Object> limits) {
+        KHopsExtension extension = KHopsExtension.get(db);
+        long maxVisited = extension.maxVisited();
+        long maxBytes = extension.maxMemory();
+        long maxMillis = extension.maxTime();
+        for (Map.Entry<String, Object> limit : limits.entrySet()) {
+            if (!(limit.getValue() instanceof Number)) {
+                throw new IllegalArgumentException("Limit " + limit.getKey() + " must be a number");
+            }
+            long value = ((Number) limit.getValue()).longValue();
+            switch (limit.getKey()) {
+                case "maxVisited":
+                    maxVisited = tighter(maxVisited, value);
+                    break;
+                case "maxMemory":
+                    maxBytes = tighter(maxBytes, value);
+                    break;
+                case "maxTime":
+                    maxMillis = tighter(maxMillis, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown limit " + limit.getKey() + ", expected maxVisited, maxMemory or maxTime");
+            }
+        }
+        return new TraversalBudget(ktx, maxVisited, maxBytes, maxMillis, extension.spillThreshold(), extension.spillDirectory());
+    }
+
+    // 0 is no limit
+    private static long tighter(long limit, long other) {
+        if (other <= 0) {
+            return limit;
+        }
+        return limit <= 0 ? other : Math.min(limit, other);
+    }
+
+    /**
+     * Checks the traversal has visited no more than the limits allow, has time left and has not
+     * been terminated. Returns false, and stays exhausted, once any of them fails.
+     */
+    public boolean check(long visited, long bytes) {
+        if (exceeded != null) {
+            return false;
+        }
+        if (maxVisited > 0 && visited > maxVisited) {
+            exceeded = VISITED;
+        } else if (maxBytes > 0 && bytes > maxBytes) {
+            exceeded = MEMORY;
+        } else {
+            return checkTime();
+        }
+        return false;
+    }
+
+    // Only the clock and the transaction, for workers that can't cheaply tell how much was visited
+    public boolean checkTime() {
+        if (exceeded != null) {
+            return false;
+        }
+        if (ktx != null && ktx.getReasonIfTerminated().isPresent()) {
+            exceeded = TERMINATED;
+        } else if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            exceeded = TIME;
+        } else {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Spills the largest of the sets until those left fit in the spill threshold. What they leave of
+     * it is shared by the outboxes of the next hop.
+     */
+    public void spill(Collection<NodeSet> sets) {
+        // The outboxes of the hop before are merged into these sets by now
+        outboxes.set(0);
+        if (spillBytes > 0) {
+            held = NodeSet.spill(sets, spillBytes, spillDirectory);
+        }
+    }
+
+    // The sets of a traversal on the calling thread
+    public void spill(NodeSet... sets) {
+        spill(Arrays.asList(sets));
+    }
+
+    // A new outbox of the hop, sharing the spill threshold with the others until it is merged into one
+    Outbox open(Supplier<Outbox> supplier) {
+        outboxes.incrementAndGet();
+        return supplier.get();
+    }
+
+    // Merges other into outbox, which from now on holds the heap of both
+    void merge(Outbox outbox, Outbox other) {
+        outbox.merge(other);
+        outboxes.decrementAndGet();
+    }
+
+    // An outbox spills once it takes more than its share of what the seen sets and frontiers left
+    void spill(Outbox outbox) {
+        if (spillBytes > 0) {
+            outbox.spill(Math.max(0, spillBytes - held) / Math.max(1, outboxes.get()), spillDirectory);
+        }
+    }
+
+    public boolean exhausted() {
+        return exceeded != null;
+    }
+
+    // The limit that stopped the traversal, null if none did
+    public String exceeded() {
+        return exceeded;
+    }
+}
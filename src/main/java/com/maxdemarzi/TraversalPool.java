@@ -0,0 +1,160 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work-stealing pool of a database, used by its parallel k-hop procedures.
+ * {@link TraversalPoolExtensionFactory} registers one with every database it is loaded into, and
+ * starts and stops it with the database. Once stopped it runs nothing until started again.
+ */
+public class TraversalPool {
+
+    private final int parallelism;
+    private volatile ForkJoinPool pool;
+    private final Semaphore admission;
+    private final long admissionTimeout;
+    private final int chunkSize;
+    private final long splitDegree;
+    private final boolean shared;
+    private final long parallelThreshold;
+
+    TraversalPool(int parallelism, int maxConcurrentQueries, long admissionTimeout, int chunkSize, long splitDegree,
+                  boolean shared, long parallelThreshold) {
+        this.parallelism = parallelism;
+        this.admission = new Semaphore(maxConcurrentQueries, true);
+        this.admissionTimeout = admissionTimeout;
+        this.chunkSize = chunkSize;
+        this.splitDegree = splitDegree;
+        this.shared = shared;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    static TraversalPool create(Config config) {
+        int parallelism = config.get(KHopsSettings.parallelism);
+        if (parallelism < 1) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        int maxConcurrentQueries = config.get(KHopsSettings.max_concurrent_queries);
+        if (maxConcurrentQueries < 1) {
+            maxConcurrentQueries = parallelism;
+        }
+        return new TraversalPool(parallelism, maxConcurrentQueries,
+                config.get(KHopsSettings.admission_timeout).toMillis(),
+                Math.max(1, config.get(KHopsSettings.chunk_size)),
+                Math.max(1, config.get(KHopsSettings.split_degree)),
+                KHopsSettings.SHARED.equalsIgnoreCase(config.get(KHopsSettings.frontier)),
+                config.get(KHopsSettings.auto_parallel_threshold));
+    }
+
+    synchronized void start() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    synchronized void stop() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    boolean running() {
+        return pool != null;
+    }
+
+    /**
+     * The pool of the database. Fails when the kernel extension was not loaded into it,
+     * or once the database has stopped it.
+     */
+    public static TraversalPool get(GraphDatabaseService db) {
+        DependencyResolver dependencies = ((GraphDatabaseAPI) db).getDependencyResolver();
+        TraversalPool pool;
+        try {
+            pool = dependencies.resolveDependency(TraversalPool.class, DependencyResolver.SelectionStrategy.FIRST);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("No traversal pool, the khops-traversal-pool kernel extension is not loaded", e);
+        }
+        if (!pool.running()) {
+            throw new IllegalStateException("The traversal pool is stopped");
+        }
+        return pool;
+    }
+
+    /**
+     * Waits up to the admission timeout for a slot in the pool.
+     * Every successful call must be paired with {@link #release()}.
+     */
+    public boolean admit() {
+        try {
+            return admission.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // A slot only if one is free right now, for callers that have something better to do than wait
+    public boolean tryAdmit() {
+        return admission.tryAcquire();
+    }
+
+    /**
+     * The workers read in transactions of their own, which do not see the uncommitted changes of the
+     * calling transaction. A caller with changes is never admitted and traverses on its own thread.
+     */
+    public boolean admit(KernelTransaction ktx) {
+        return !hasChanges(ktx) && admit();
+    }
+
+    public boolean tryAdmit(KernelTransaction ktx) {
+        return !hasChanges(ktx) && tryAdmit();
+    }
+
+    static boolean hasChanges(KernelTransaction ktx) {
+        return ktx instanceof TxStateHolder && ((TxStateHolder) ktx).hasTxStateWithChanges();
+    }
+
+    public void release() {
+        admission.release();
+    }
+
+    public <T> T invoke(ForkJoinTask<T> task) {
+        ForkJoinPool running = pool;
+        if (running == null) {
+            throw new IllegalStateException("The traversal pool is stopped");
+        }
+        return running.invoke(task);
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public long splitDegree() {
+        return splitDegree;
+    }
+
+    public long parallelThreshold() {
+        return parallelThreshold;
+    }
+
+    // The frontier of a parallel traversal, as set by com.maxdemarzi.khops.frontier
+    public Frontier frontier(long highId) {
+        return shared ? new SharedFrontier(highId) : new PartitionedFrontier(parallelism(), highId);
+    }
+}
@@ -0,0 +1,32 @@
+package com.maxdemarzi;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.extension.ExtensionType;
+import org.neo4j.kernel.extension.KernelExtensionFactory;
+import org.neo4j.kernel.impl.spi.KernelContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.Lifecycle;
+
+public class TraversalPoolExtensionFactory extends KernelExtensionFactory<TraversalPoolExtensionFactory.Dependencies> {
+
+    public interface Dependencies {
+        Config config();
+        GraphDatabaseService graphDatabaseService();
+    }
+
+    public TraversalPoolExtensionFactory() {
+        super(ExtensionType.DATABASE, "khops-traversal-pool");
+    }
+
+    @Override
+    public Lifecycle newInstance(KernelContext context, Dependencies dependencies) {
+        // One pool, cache, set of metrics and k-hop state per database, found by the procedures through the database's dependencies
+        TraversalPool pool = context.dependencySatisfier().satisfyDependency(TraversalPool.create(dependencies.config()));
+        KHopsCache cache = context.dependencySatisfier().satisfyDependency(KHopsCache.create(dependencies.config()));
+        KHopsMetrics metrics = context.dependencySatisfier().satisfyDependency(new KHopsMetrics(
+                ((GraphDatabaseAPI) dependencies.graphDatabaseService()).databaseLayout().databaseDirectory().getAbsolutePath()));
+        return context.dependencySatisfier().satisfyDependency(
+                new KHopsExtension(dependencies.graphDatabaseService(), dependencies.config(), pool, cache, metrics));
+    }
+}
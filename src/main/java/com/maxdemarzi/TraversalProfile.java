@@ -0,0 +1,131 @@
+package com.maxdemarzi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What each hop of a profiled traversal did and where its time went.
+ * Only {@code com.maxdemarzi.khops.profile} creates one, for whichever engine it is asked to run;
+ * the hop loops take a null profile otherwise, so an unprofiled traversal pays for a null check
+ * per hop and per task.
+ */
+public class TraversalProfile {
+    public static final String TOP_DOWN = "top-down";
+    public static final String BOTTOM_UP = "bottom-up";
+
+    private final List<Hop> hops = new ArrayList<>();
+
+    public static class Hop {
+        final int hop;
+        final String direction;
+        final long frontier;
+        // Not counted by bottom-up hops, which stop at the first neighbour in the frontier
+        Long relationships;
+        long discovered;
+        long expansionNanos;
+        long mergeNanos;
+        long peakBytes;
+        boolean merged;
+        final Map<String, LongAdder> workerNanos = new ConcurrentHashMap<>();
+
+        Hop(int hop, String direction, long frontier) {
+            this.hop = hop;
+            this.direction = direction;
+            this.frontier = frontier;
+        }
+
+        // Called by every task of the hop, from whichever worker ran it
+        void worked(long nanos) {
+            workerNanos.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(nanos);
+        }
+
+        void expanded(long nanos, Long relationships) {
+            this.expansionNanos = nanos;
+            this.relationships = relationships;
+        }
+
+        void merged(long nanos, long discovered, long bytes) {
+            this.mergeNanos = nanos;
+            this.discovered = discovered;
+            this.merged = true;
+            this.peakBytes = Math.max(peakBytes, bytes);
+        }
+
+        void bytes(long bytes) {
+            this.peakBytes = Math.max(peakBytes, bytes);
+        }
+
+        public int hop() {
+            return hop;
+        }
+
+        public String direction() {
+            return direction;
+        }
+
+        public long frontier() {
+            return frontier;
+        }
+
+        public Long relationships() {
+            return relationships;
+        }
+
+        public long discovered() {
+            return discovered;
+        }
+
+        // Relationships that led to a node already seen, or found earlier in the same hop
+        public Long duplicates() {
+            return relationships == null ? null : relationships - discovered;
+        }
+
+        public double expansionMillis() {
+            return expansionNanos / 1_000_000.0;
+        }
+
+        public double mergeMillis() {
+            return mergeNanos / 1_000_000.0;
+        }
+
+        public long peakBytes() {
+            return peakBytes;
+        }
+
+        public Map<String, Double> workerMillis() {
+            Map<String, Double> millis = new TreeMap<>();
+            for (Map.Entry<String, LongAdder> worker : workerNanos.entrySet()) {
+                millis.put(worker.getKey(), worker.getValue().sum() / 1_000_000.0);
+            }
+            return millis;
+        }
+    }
+
+    Hop next(String direction, long frontier) {
+        Hop hop = new Hop(hops.size() + 1, direction, frontier);
+        hops.add(hop);
+        return hop;
+    }
+
+    // For engines that merge a hop's discoveries once the next one is planned, since the merge started
+    void merged(long started, long discovered, long bytes) {
+        Hop last = last();
+        if (last != null) {
+            last.merged(System.nanoTime() - started, discovered, bytes);
+        }
+    }
+
+    // The hop whose discoveries have not been merged yet, if there is one
+    Hop last() {
+        Hop last = hops.isEmpty() ? null : hops.get(hops.size() - 1);
+        return last == null || last.merged ? null : last;
+    }
+
+    public List<Hop> hops() {
+        return hops;
+    }
+}
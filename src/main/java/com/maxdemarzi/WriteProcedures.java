@@ -0,0 +1,102 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.WriteResult;
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+public class WriteProcedures {
+    static final long BATCH_SIZE = 10_000;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.khops.write", mode = Mode.WRITE)
+    @Description("com.maxdemarzi.khops.write(Long distance, List<String> relationshipTypes, String property, Map config) - writes the k-hop count of every node to property, resuming an unfinished run")
+    public Stream<WriteResult> write(@Name(value = "distance", defaultValue = "1") Long distance,
+                                     @Name(value = "relationshipTypes", defaultValue = "[]") List<String> relationshipTypes,
+                                     @Name(value = "property", defaultValue = "khops") String property,
+                                     @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        if (distance < 1) return Stream.empty();
+
+        long batchSize = BATCH_SIZE;
+        boolean resume = true;
+        for (Map.Entry<String, Object> option : config.entrySet()) {
+            switch (option.getKey()) {
+                case "batchSize":
+                    if (!(option.getValue() instanceof Number) || ((Number) option.getValue()).longValue() < 1) {
+                        throw new IllegalArgumentException("batchSize must be a positive number");
+                    }
+                    batchSize = ((Number) option.getValue()).longValue();
+                    break;
+                case "resume":
+                    if (!(option.getValue() instanceof Boolean)) {
+                        throw new IllegalArgumentException("resume must be true or false");
+                    }
+                    resume = (Boolean) option.getValue();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option.getKey() + ", expected batchSize or resume");
+            }
+        }
+
+        DependencyResolver dependencyResolver = ((GraphDatabaseAPI) db).getDependencyResolver();
+        final ThreadToStatementContextBridge ctx = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class, DependencyResolver.SelectionStrategy.FIRST);
+        KernelTransaction ktx = ctx.getKernelTransactionBoundToThisThread(true);
+        TokenRead tokenRead = ktx.tokenRead();
+
+        Step step = Step.of(tokenRead, relationshipTypes);
+
+        // A run with other parameters is another job, with a checkpoint of its own
+        String job = property + ":" + distance + ":" + relationshipTypes;
+        Checkpoint checkpoint = Checkpoint.load(db, job, resume, batchSize);
+        long highId = NodeIds.highId(db);
+        // Cut from the node id the job resumes from, whatever batch size the run before had
+        long batches = (Math.max(0, highId - checkpoint.first()) + batchSize - 1) / batchSize;
+
+        TraversalPool pool = TraversalPool.get(db);
+        if (!pool.admit()) {
+            throw new IllegalStateException("Too many parallel traversals running, try com.maxdemarzi.khops.write again later");
+        }
+        // Only a terminated transaction stops the job, there is no point in a partial count
+        TraversalBudget budget = new TraversalBudget(ktx, 0, 0, 0);
+        LongAdder nodes = new LongAdder();
+        LongAdder written = new LongAdder();
+        long start = System.currentTimeMillis();
+        boolean complete;
+        try {
+            if (batches > 0) {
+                pool.invoke(new BulkKHops(db, log, checkpoint.first(), 0, batches, batchSize, highId, distance, step,
+                        property, checkpoint, budget, nodes, written));
+            }
+            complete = checkpoint.next() >= batches;
+            // On a worker, in a transaction of its own like the batches. On this thread it would be part of the
+            // procedure's transaction, and lost with it if the caller is terminated or rolls back
+            pool.invoke(ForkJoinTask.adapt(complete ? checkpoint::remove : checkpoint::save));
+        } finally {
+            pool.release();
+        }
+        long millis = System.currentTimeMillis() - start;
+
+        if (!complete) {
+            log.info("khops.write " + job + " stopped at node " + checkpoint.nextNode() + " of " + highId
+                    + ", " + budget.exceeded());
+        }
+        return Stream.of(new WriteResult(nodes.sum(), written.sum(), checkpoint.first(), millis, complete,
+                budget.exceeded()));
+    }
+}
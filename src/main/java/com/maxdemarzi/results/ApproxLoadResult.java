@@ -0,0 +1,17 @@
+package com.maxdemarzi.results;
+
+public class ApproxLoadResult {
+    public final Long nodes;
+    public final Long distance;
+    public final Double relativeError;
+    public final Long bytes;
+    public final Long millis;
+
+    public ApproxLoadResult(Long nodes, Long distance, Double relativeError, Long bytes, Long millis) {
+        this.nodes = nodes;
+        this.distance = distance;
+        this.relativeError = relativeError;
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+}
@@ -0,0 +1,11 @@
+package com.maxdemarzi.results;
+
+public class ApproxResult {
+    public final Double estimate;
+    public final Double error;
+
+    public ApproxResult(Double estimate, Double error) {
+        this.estimate = estimate;
+        this.error = error;
+    }
+}
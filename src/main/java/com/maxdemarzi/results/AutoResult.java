@@ -0,0 +1,17 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class AutoResult {
+    public final Long value;
+    public final List<String> plan;
+    public final Boolean partial;
+    public final String stoppedBy;
+
+    public AutoResult(Long value, List<String> plan, String stoppedBy) {
+        this.value = value;
+        this.plan = plan;
+        this.partial = stoppedBy != null;
+        this.stoppedBy = stoppedBy;
+    }
+}
@@ -0,0 +1,21 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class BitmapResult {
+    public final byte[] nodes;
+    public final Long count;
+    public final List<byte[]> hops;
+    public final List<String> plan;
+    public final Boolean partial;
+    public final String stoppedBy;
+
+    public BitmapResult(byte[] nodes, long count, List<byte[]> hops, List<String> plan, String stoppedBy) {
+        this.nodes = nodes;
+        this.count = count;
+        this.hops = hops;
+        this.plan = plan;
+        this.partial = stoppedBy != null;
+        this.stoppedBy = stoppedBy;
+    }
+}
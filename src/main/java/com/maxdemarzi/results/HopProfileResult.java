@@ -0,0 +1,32 @@
+package com.maxdemarzi.results;
+
+import com.maxdemarzi.TraversalProfile;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class HopProfileResult {
+    public final Long hop;
+    public final String direction;
+    public final Long frontier;
+    public final Long relationships;
+    public final Long discovered;
+    public final Long duplicates;
+    public final Double expansionMillis;
+    public final Double mergeMillis;
+    public final Map<String, Object> workerMillis;
+    public final Long peakBytes;
+
+    public HopProfileResult(TraversalProfile.Hop hop) {
+        this.hop = (long) hop.hop();
+        this.direction = hop.direction();
+        this.frontier = hop.frontier();
+        this.relationships = hop.relationships();
+        this.discovered = hop.discovered();
+        this.duplicates = hop.duplicates();
+        this.expansionMillis = hop.expansionMillis();
+        this.mergeMillis = hop.mergeMillis();
+        this.workerMillis = new TreeMap<>(hop.workerMillis());
+        this.peakBytes = hop.peakBytes();
+    }
+}
@@ -0,0 +1,13 @@
+package com.maxdemarzi.results;
+
+public class HopResult {
+    public final Long nodeId;
+    public final Long hop;
+    public final Long hopCount;
+
+    public HopResult(Long nodeId, Long hop, Long hopCount) {
+        this.nodeId = nodeId;
+        this.hop = hop;
+        this.hopCount = hopCount;
+    }
+}
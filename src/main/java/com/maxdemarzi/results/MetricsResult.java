@@ -0,0 +1,29 @@
+package com.maxdemarzi.results;
+
+import com.maxdemarzi.KHopsMetrics;
+
+public class MetricsResult {
+    public final String engine;
+    public final Long calls;
+    public final Long cacheHits;
+    public final Long partial;
+    public final Long visited;
+    public final Double meanMillis;
+    public final Double p50Millis;
+    public final Double p90Millis;
+    public final Double p99Millis;
+    public final Double maxMillis;
+
+    public MetricsResult(String engine, KHopsMetrics.Engine metrics) {
+        this.engine = engine;
+        this.calls = metrics.getCalls();
+        this.cacheHits = metrics.getCacheHits();
+        this.partial = metrics.getPartial();
+        this.visited = metrics.getVisited();
+        this.meanMillis = metrics.getMeanMillis();
+        this.p50Millis = metrics.getP50Millis();
+        this.p90Millis = metrics.getP90Millis();
+        this.p99Millis = metrics.getP99Millis();
+        this.maxMillis = metrics.getMaxMillis();
+    }
+}
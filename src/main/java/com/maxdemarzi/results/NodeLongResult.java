@@ -0,0 +1,13 @@
+package com.maxdemarzi.results;
+
+import org.neo4j.graphdb.Node;
+
+public class NodeLongResult {
+    public final Node node;
+    public final Long value;
+
+    public NodeLongResult(Node node, Long value) {
+        this.node = node;
+        this.value = value;
+    }
+}
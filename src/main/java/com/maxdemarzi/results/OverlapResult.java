@@ -0,0 +1,20 @@
+package com.maxdemarzi.results;
+
+public class OverlapResult {
+    public final Long countA;
+    public final Long countB;
+    public final Long overlap;
+    public final Double jaccard;
+    public final Boolean partial;
+    public final String stoppedBy;
+
+    public OverlapResult(long countA, long countB, long overlap, String stoppedBy) {
+        this.countA = countA;
+        this.countB = countB;
+        this.overlap = overlap;
+        long union = countA + countB - overlap;
+        this.jaccard = union == 0 ? 0.0 : (double) overlap / union;
+        this.partial = stoppedBy != null;
+        this.stoppedBy = stoppedBy;
+    }
+}
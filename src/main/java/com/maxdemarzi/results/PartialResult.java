@@ -0,0 +1,13 @@
+package com.maxdemarzi.results;
+
+public class PartialResult {
+    public final Long value;
+    public final Boolean partial;
+    public final String stoppedBy;
+
+    public PartialResult(Long value, String stoppedBy) {
+        this.value = value;
+        this.partial = stoppedBy != null;
+        this.stoppedBy = stoppedBy;
+    }
+}
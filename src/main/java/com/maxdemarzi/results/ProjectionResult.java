@@ -0,0 +1,19 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class ProjectionResult {
+    public final List<String> relationshipTypes;
+    public final Long nodes;
+    public final Long relationships;
+    public final Long bytes;
+    public final Long millis;
+
+    public ProjectionResult(List<String> relationshipTypes, Long nodes, Long relationships, Long bytes, Long millis) {
+        this.relationshipTypes = relationshipTypes;
+        this.nodes = nodes;
+        this.relationships = relationships;
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+}
@@ -0,0 +1,15 @@
+package com.maxdemarzi.results;
+
+public class ReachableResult {
+    public final Boolean reachable;
+    public final Long distance;
+    public final Boolean partial;
+    public final String stoppedBy;
+
+    public ReachableResult(long distance, String stoppedBy) {
+        this.reachable = distance >= 0;
+        this.distance = distance >= 0 ? distance : null;
+        this.partial = stoppedBy != null;
+        this.stoppedBy = stoppedBy;
+    }
+}
@@ -0,0 +1,21 @@
+package com.maxdemarzi.results;
+
+public class WriteResult {
+    public final Long nodes;
+    public final Long batches;
+    public final Long resumedFrom;
+    public final Long millis;
+    public final Double nodesPerSecond;
+    public final Boolean complete;
+    public final String stoppedBy;
+
+    public WriteResult(long nodes, long batches, long resumedFrom, long millis, boolean complete, String stoppedBy) {
+        this.nodes = nodes;
+        this.batches = batches;
+        this.resumedFrom = resumedFrom;
+        this.millis = millis;
+        this.nodesPerSecond = millis == 0 ? (double) nodes * 1000 : nodes * 1000.0 / millis;
+        this.complete = complete;
+        this.stoppedBy = stoppedBy;
+    }
+}
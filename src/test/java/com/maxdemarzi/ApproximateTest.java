@@ -0,0 +1,119 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class ApproximateTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(ApproximateProcedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldEstimatekhops()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "CALL com.maxdemarzi.khops.approx.load(4)" ).consume();
+
+            // When I use the procedure
+            Record record = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.approx(node, 4) YIELD estimate, error RETURN estimate, error" ).single();
+
+            // Then I should get what I expect
+            assertThat(record.get("estimate").asDouble()).isCloseTo(4.0, within(0.5));
+            assertThat(record.get("error").asDouble()).isGreaterThan(0.0);
+        }
+    }
+
+    @Test
+    void shouldEstimatekhopswithRelTypes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "CALL com.maxdemarzi.khops.approx.load(4, ['KNOWS'])" ).consume();
+
+            // When I use the procedure
+            Record record = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.approx(node, 2, ['KNOWS']) YIELD estimate RETURN estimate" ).single();
+
+            // Then I should get what I expect
+            assertThat(record.get("estimate").asDouble()).isCloseTo(2.0, within(0.5));
+        }
+    }
+
+    @Test
+    void shouldRefuseLoadThatDoesNotFit()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When the estimates of every round would take more direct memory than there is
+            // Then the load is refused before anything is allocated
+            assertThatThrownBy(() -> session.run( "CALL com.maxdemarzi.khops.approx.load(1000000000000)" ).consume())
+                    .isInstanceOf(ClientException.class)
+                    .hasMessageContaining("direct memory");
+        }
+    }
+
+    @Test
+    void shouldEstimatekhopsDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            session.run( "CALL com.maxdemarzi.khops.approx.load(2, ['KNOWS>'])" ).consume();
+
+            // When I use the procedure
+            Record outgoing = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.approx(node, 2, ['KNOWS>']) YIELD estimate RETURN estimate" ).single();
+            Record last = session.run( "MATCH (node:User{username:'User-3'}) WITH node CALL com.maxdemarzi.khops.approx(node, 2, ['KNOWS>']) YIELD estimate RETURN estimate" ).single();
+
+            // Then I should get what I expect, and estimates of the types both ways are not taken for these
+            assertThat(outgoing.get("estimate").asDouble()).isCloseTo(2.0, within(0.5));
+            assertThat(last.get("estimate").asDouble()).isCloseTo(0.0, within(0.5));
+            assertThatThrownBy(() -> session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.approx(node, 2, ['KNOWS']) YIELD estimate RETURN estimate" ).consume())
+                    .isInstanceOf(ClientException.class);
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -0,0 +1,128 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BitmapTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(BitmapProcedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldReturnNeighbourhoodOfSeeds()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            Map<String, Long> ids = ids(session);
+
+            // When I use the procedure
+            Record record = session.run( "CALL com.maxdemarzi.khops.bitmap($seeds, 1) YIELD nodes, count RETURN nodes, count",
+                    Values.parameters("seeds", bitmap(ids, "User-1", "User-6")) ).single();
+
+            // Then I should get what I expect
+            assertThat(record.get("count").asLong()).isEqualTo(4);
+            assertThat(nodes(record.get("nodes").asByteArray()))
+                    .isEqualTo(Roaring64NavigableMap.bitmapOf(ids.get("User-2"), ids.get("User-5"), ids.get("User-7"), ids.get("User-8")));
+        }
+    }
+
+    @Test
+    void shouldNeverCrossExcludedNodes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            Map<String, Long> ids = ids(session);
+
+            // When I use the procedure
+            Record record = session.run( "CALL com.maxdemarzi.khops.bitmap($seeds, 2, [], $exclude) YIELD nodes, count RETURN nodes, count",
+                    Values.parameters("seeds", bitmap(ids, "User-6"), "exclude", bitmap(ids, "User-5")) ).single();
+
+            // Then I should get what I expect, User-4 is only reached through User-5
+            assertThat(record.get("count").asLong()).isEqualTo(2);
+            assertThat(nodes(record.get("nodes").asByteArray()))
+                    .isEqualTo(Roaring64NavigableMap.bitmapOf(ids.get("User-7"), ids.get("User-8")));
+        }
+    }
+
+    @Test
+    void shouldReturnEveryHop()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            Map<String, Long> ids = ids(session);
+
+            // When I use the procedure
+            Record record = session.run( "CALL com.maxdemarzi.khops.bitmap($seeds, 2, ['KNOWS'], null, true) YIELD hops RETURN hops",
+                    Values.parameters("seeds", bitmap(ids, "User-1")) ).single();
+            List<byte[]> hops = record.get("hops").asList(Value::asByteArray);
+
+            // Then I should get what I expect
+            assertThat(hops).hasSize(2);
+            assertThat(nodes(hops.get(0))).isEqualTo(Roaring64NavigableMap.bitmapOf(ids.get("User-2")));
+            assertThat(nodes(hops.get(1))).isEqualTo(Roaring64NavigableMap.bitmapOf(ids.get("User-3")));
+        }
+    }
+
+    private static Map<String, Long> ids(Session session) {
+        Map<String, Long> ids = new HashMap<>();
+        session.run( "MATCH (user:User) RETURN user.username AS username, id(user) AS id" )
+                .forEachRemaining(record -> ids.put(record.get("username").asString(), record.get("id").asLong()));
+        return ids;
+    }
+
+    private static byte[] bitmap(Map<String, Long> ids, String... usernames) {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        for (String username : usernames) {
+            bitmap.addLong(ids.get(username));
+        }
+        return BitmapProcedures.write(bitmap);
+    }
+
+    private static Roaring64NavigableMap nodes(byte[] bytes) {
+        return BitmapProcedures.read(bytes, "nodes");
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -0,0 +1,97 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DenseNodeTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(Procedures.class)
+                .withConfig(KHopsSettings.cache_max_entries, "0")
+                // the hub is dense and split by chain, the tasks hand over their frontier after 8 relationships
+                .withConfig(GraphDatabaseSettings.dense_node_threshold, "10")
+                .withConfig(KHopsSettings.split_degree, "8")
+                // khops.auto goes parallel for the hops that expand the hub
+                .withConfig(KHopsSettings.parallelism, "4")
+                .withConfig(KHopsSettings.auto_parallel_threshold, "50")
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldCountParallelkhopsFromDenseNode()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult first = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 1) YIELD value RETURN value" );
+            StatementResult second = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 2) YIELD value RETURN value" );
+
+            // Then I should get what I expect
+            assertThat(first.single().get("value").asInt()).isEqualTo(100);
+            assertThat(second.single().get("value").asInt()).isEqualTo(200);
+        }
+    }
+
+    @Test
+    void shouldCountParallelkhopsTowardsDenseNode()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User{username:'Leaf-1'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 4) YIELD value RETURN value" );
+
+            // Then I should get what I expect
+            assertThat(result.single().get("value").asInt()).isEqualTo(200);
+        }
+    }
+
+    @Test
+    void shouldPlanAutokhopsFromDegree()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record hub = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.khops.auto(node, 2) YIELD value, plan RETURN value, plan" ).single();
+            Record leaf = session.run( "MATCH (node:User{username:'Leaf-1'}) WITH node CALL com.maxdemarzi.khops.auto(node, 4) YIELD value, plan RETURN value, plan" ).single();
+
+            // Then I should get what I expect
+            assertThat(hub.get("value").asInt()).isEqualTo(200);
+            assertThat(hub.get("plan").asList(Value::asString)).allMatch(hop -> hop.startsWith(AutoKHops.PARALLEL));
+            assertThat(leaf.get("value").asInt()).isEqualTo(200);
+            assertThat(leaf.get("plan").asList(Value::asString)).first().isEqualTo(AutoKHops.SEQUENTIAL + " " + TraversalProfile.TOP_DOWN);
+        }
+    }
+
+    // A hub with a KNOWS loop, KNOWS to the even users and FRIENDS from the odd ones, every user KNOWS a leaf
+    private static final String MODEL_STATEMENT =
+            "CREATE (hub:User { username:'Hub' })" +
+                    "CREATE (hub)-[:KNOWS]->(hub) " +
+                    "WITH hub UNWIND range(1, 100) AS i " +
+                    "CREATE (user:User { username:'User-' + i }) " +
+                    "CREATE (user)-[:KNOWS]->(:User { username:'Leaf-' + i }) " +
+                    "FOREACH (ignored IN CASE WHEN i % 2 = 0 THEN [1] ELSE [] END | CREATE (hub)-[:KNOWS]->(user)) " +
+                    "FOREACH (ignored IN CASE WHEN i % 2 = 1 THEN [1] ELSE [] END | CREATE (user)-[:FRIENDS]->(hub))";
+}
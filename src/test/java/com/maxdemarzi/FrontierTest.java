@@ -0,0 +1,159 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.neo4j.driver.v1.*;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FrontierTest {
+    private static final Map<String, ServerControls> servers = new HashMap<>();
+
+    @BeforeAll
+    static void startNeo4j() {
+        for (String frontier : new String[]{KHopsSettings.PARTITIONED, KHopsSettings.SHARED}) {
+            servers.put(frontier, TestServerBuilders.newInProcessBuilder()
+                    .withProcedure(Procedures.class)
+                    .withConfig(KHopsSettings.cache_max_entries, "0")
+                    .withConfig(KHopsSettings.frontier, frontier)
+                    // the hub is dense and split by chain, the tasks hand over their frontier after 8 relationships
+                    .withConfig(GraphDatabaseSettings.dense_node_threshold, "10")
+                    .withConfig(KHopsSettings.split_degree, "8")
+                    .withFixture(MODEL_STATEMENT)
+                    .newServer());
+        }
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        servers.values().forEach(ServerControls::close);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {KHopsSettings.PARTITIONED, KHopsSettings.SHARED})
+    void shouldCountParallelkhopsLikekhops2(String frontier)
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( servers.get(frontier).boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            for (String start : new String[]{"Hub", "User-1", "Leaf-1"}) {
+                for (int distance = 1; distance <= 4; distance++) {
+                    // When I use both procedures
+                    String call = "MATCH (node:User{username:'" + start + "'}) WITH node CALL com.maxdemarzi.%s(node, " + distance + ") YIELD value RETURN value";
+                    long sequential = session.run(String.format(call, "khops2")).single().get("value").asLong();
+                    long parallel = session.run(String.format(call, "parallel.khops2")).single().get("value").asLong();
+
+                    // Then they should agree
+                    assertThat(parallel).as(frontier + " from " + start + " at " + distance + " hops").isEqualTo(sequential);
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {KHopsSettings.PARTITIONED, KHopsSettings.SHARED})
+    void shouldCountParallelkhopsFromDenseNodewithRelTypes(String frontier)
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( servers.get(frontier).boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult knows = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 2, ['KNOWS']) YIELD value RETURN value" );
+            StatementResult friends = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 2, ['FRIENDS']) YIELD value RETURN value" );
+
+            // Then I should get what I expect
+            assertThat(knows.single().get("value").asInt()).as(frontier).isEqualTo(100);
+            assertThat(friends.single().get("value").asInt()).as(frontier).isEqualTo(50);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {KHopsSettings.PARTITIONED, KHopsSettings.SHARED})
+    void shouldStopParallelkhopsAtVisitedLimit(String frontier)
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( servers.get(frontier).boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure with a limit below the neighbourhood size
+            Record record = session.run( "MATCH (node:User{username:'Hub'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 2, [], {maxVisited: 10}) " +
+                    "YIELD value, partial, stoppedBy RETURN value, partial, stoppedBy" ).single();
+
+            // Then I should get a partial count
+            assertThat(record.get("partial").asBoolean()).as(frontier).isTrue();
+            assertThat(record.get("stoppedBy").asString()).as(frontier).isEqualTo("visited");
+            assertThat(record.get("value").asLong()).as(frontier).isLessThan(200);
+        }
+    }
+
+    @Test
+    void shouldClaimEveryNodeOnce() throws Exception
+    {
+        // Given workers that all reach every node at once, in a different order, past the high id too
+        int workers = 8;
+        long highId = 1 << 16;
+        long nodes = highId + 1000;
+        ConcurrentNodeSet seen = new ConcurrentNodeSet(highId);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SharedFrontier.Claimed>> outboxes = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            long offset = worker * 4099L;
+            outboxes.add(executor.submit(() -> {
+                SharedFrontier.Claimed claimed = new SharedFrontier.Claimed(seen, highId);
+                start.await();
+                for (long i = 0; i < nodes; i++) {
+                    claimed.add((i + offset) % nodes);
+                }
+                return claimed;
+            }));
+        }
+
+        // When they claim them
+        start.countDown();
+        SharedFrontier.Claimed next = outboxes.get(0).get(1, TimeUnit.MINUTES);
+        long total = next.toArray().length;
+        for (int worker = 1; worker < workers; worker++) {
+            SharedFrontier.Claimed other = outboxes.get(worker).get(1, TimeUnit.MINUTES);
+            total += other.toArray().length;
+            next.merge(other);
+        }
+        executor.shutdown();
+
+        // Then every node is claimed by one worker only, and is in the next frontier
+        assertThat(total).isEqualTo(nodes);
+        long[] claimed = next.toArray();
+        Arrays.sort(claimed);
+        assertThat(claimed).hasSize((int) nodes);
+        for (int i = 0; i < claimed.length; i++) {
+            assertThat(claimed[i]).isEqualTo(i);
+        }
+        assertThat(seen.cardinality()).isEqualTo(nodes);
+    }
+
+    // A hub with a KNOWS loop, KNOWS to the even users and FRIENDS from the odd ones, every user KNOWS a leaf
+    private static final String MODEL_STATEMENT =
+            "CREATE (hub:User { username:'Hub' })" +
+                    "CREATE (hub)-[:KNOWS]->(hub) " +
+                    "WITH hub UNWIND range(1, 100) AS i " +
+                    "CREATE (user:User { username:'User-' + i }) " +
+                    "CREATE (user)-[:KNOWS]->(:User { username:'Leaf-' + i }) " +
+                    "FOREACH (ignored IN CASE WHEN i % 2 = 0 THEN [1] ELSE [] END | CREATE (hub)-[:KNOWS]->(user)) " +
+                    "FOREACH (ignored IN CASE WHEN i % 2 = 1 THEN [1] ELSE [] END | CREATE (user)-[:FRIENDS]->(hub))";
+}
@@ -0,0 +1,176 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class KHopsCacheTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(Procedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldInvalidateCachedkhopsOnNewRelationship()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+
+            // Given a cached result
+            StatementResult result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops2(node, 2) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(2);
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(1);
+
+            // When a relationship is added to a node it visited
+            session.run( "MATCH (n2:User{username:'User-2'}), (n7:User{username:'User-7'}) CREATE (n2)-[:KNOWS]->(n7)" ).consume();
+
+            // Then the result is computed again
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(0);
+            result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 2) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void shouldKeepCachedkhopsOnUnrelatedRelationship()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+
+            // Given a cached result
+            StatementResult result = session.run( "MATCH (node:User{username:'User-6'}) WITH node CALL com.maxdemarzi.khops(node, 1) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(3);
+
+            // When a relationship is added between nodes it did not visit
+            session.run( "MATCH (n1:User{username:'User-1'}), (n3:User{username:'User-3'}) CREATE (n1)-[:FRIENDS]->(n3)" ).consume();
+
+            // Then the result stays cached
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void shouldCachekhopsByDirection()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+
+            // Given a cached directed result
+            StatementResult result = session.run( "MATCH (node:User{username:'User-2'}) WITH node CALL com.maxdemarzi.khops2(node, 1, ['KNOWS>']) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+
+            // Then neither the other direction nor both directions are served from it
+            result = session.run( "MATCH (node:User{username:'User-2'}) WITH node CALL com.maxdemarzi.khops2(node, 1, ['<KNOWS']) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+            result = session.run( "MATCH (node:User{username:'User-2'}) WITH node CALL com.maxdemarzi.khops2(node, 1, ['KNOWS']) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(2);
+            result = session.run( "MATCH (node:User{username:'User-2'}) WITH node CALL com.maxdemarzi.khops2(node, 1, [], {}, {}, [['KNOWS>']]) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(3);
+
+            // And khops does not take directed types at all
+            assertThatThrownBy(() -> session.run( "MATCH (node:User{username:'User-2'}) WITH node CALL com.maxdemarzi.khops(node, 1, ['KNOWS>']) YIELD value RETURN value" ).consume())
+                    .isInstanceOf(ClientException.class);
+        }
+    }
+
+    @Test
+    void shouldNotCacheUncommittedCounts()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+
+            // Given a cached result
+            StatementResult result = session.run( "MATCH (node:User{username:'User-8'}) WITH node CALL com.maxdemarzi.khops2(node, 1) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(1);
+
+            // When a transaction counts after writing a relationship of its own, then rolls back
+            try (Transaction tx = session.beginTransaction()) {
+                tx.run( "MATCH (n8:User{username:'User-8'}), (n3:User{username:'User-3'}) CREATE (n8)-[:KNOWS]->(n3)" ).consume();
+                for (String procedure : new String[]{"khops", "khops2", "parallel.khops2"}) {
+                    result = tx.run( "MATCH (node:User{username:'User-8'}) WITH node CALL com.maxdemarzi." + procedure + "(node, 1) YIELD value RETURN value" );
+                    // Then it sees its own write rather than the cached count
+                    assertThat(result.single().get("value").asInt()).as(procedure).isEqualTo(2);
+                }
+                result = tx.run( "MATCH (node:User{username:'User-8'}) WITH node CALL com.maxdemarzi.khops.auto(node, 1) YIELD value RETURN value" );
+                assertThat(result.single().get("value").asInt()).isEqualTo(2);
+                result = tx.run( "MATCH (node:User{username:'User-8'}) WITH collect(node) AS nodes CALL com.maxdemarzi.khops.batch(nodes, 1) YIELD value RETURN value" );
+                assertThat(result.single().get("value").asInt()).isEqualTo(2);
+                tx.failure();
+            }
+
+            // And what it counted was never cached for anyone else
+            result = session.run( "MATCH (node:User{username:'User-8'}) WITH node CALL com.maxdemarzi.khops2(node, 1) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+            result = session.run( "MATCH (node:User{username:'User-8'}) WITH node CALL com.maxdemarzi.khops(node, 1) YIELD value RETURN value" );
+            assertThat(result.single().get("value").asInt()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void shouldKeepCachesOfDatabasesApart()
+    {
+        try (ServerControls other = TestServerBuilders.newInProcessBuilder().withProcedure(Procedures.class)
+                .withConfig(KHopsSettings.cache_max_entries, "0").withFixture(MODEL_STATEMENT).newServer()) {
+            KHopsCache cache = KHopsCache.get(neo4j.graph());
+            assertThat(KHopsCache.get(other.graph())).isNotSameAs(cache);
+            assertThat(KHopsCache.get(other.graph()).enabled()).isFalse();
+            assertThat(cache.enabled()).isTrue();
+        }
+
+        // Stopping the other database leaves this one's cache working
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+            session.run( "MATCH (node:User{username:'User-5'}) WITH node CALL com.maxdemarzi.khops2(node, 1) YIELD value RETURN value" ).consume();
+            assertThat(KHopsCache.get(neo4j.graph()).size()).isEqualTo(1);
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -1,10 +1,17 @@
 package com.maxdemarzi;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.neo4j.driver.v1.*;
 import org.neo4j.harness.ServerControls;
 import org.neo4j.harness.TestServerBuilders;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class KHopsTest {
@@ -14,6 +21,8 @@ public class KHopsTest {
     static void startNeo4j() {
         neo4j = TestServerBuilders.newInProcessBuilder()
                 .withProcedure(Procedures.class)
+                // every test has to run its engine, not read another engine's result from the cache
+                .withConfig(KHopsSettings.cache_max_entries, "0")
                 .withFixture(MODEL_STATEMENT)
                 .newServer();
     }
@@ -137,6 +146,326 @@ public class KHopsTest {
         }
     }
 
+    @Test
+    void shouldCountAutokhops()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record all = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.auto(node, 4) YIELD value, plan RETURN value, plan" ).single();
+            Record knows = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.auto(node, 4, ['KNOWS']) YIELD value RETURN value" ).single();
+
+            // Then I should get what I expect, small neighbourhoods stay on the calling thread
+            assertThat(all.get("value").asInt()).isEqualTo(4);
+            assertThat(all.get("plan").asList(Value::asString)).isNotEmpty().allMatch(hop -> hop.startsWith(AutoKHops.SEQUENTIAL));
+            assertThat(knows.get("value").asInt()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldFollowkhopsDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            for (String procedure : new String[]{"com.maxdemarzi.khops2", "com.maxdemarzi.parallel.khops2", "com.maxdemarzi.khops.auto"}) {
+                // When I use the procedure
+                Record outgoing = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, ['KNOWS>']) YIELD value RETURN value" ).single();
+                Record incoming = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, ['<KNOWS']) YIELD value RETURN value" ).single();
+                Record anyIncoming = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, ['<']) YIELD value RETURN value" ).single();
+                Record pattern = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, [], {}, {}, [['KNOWS>'], ['KNOWS>'], ['<FRIENDS']]) YIELD value RETURN value" ).single();
+
+                // Then I should get what I expect, User-4 is only reached by following FRIENDS backwards
+                assertThat(outgoing.get("value").asInt()).as(procedure).isEqualTo(2);
+                assertThat(incoming.get("value").asInt()).as(procedure).isEqualTo(0);
+                assertThat(anyIncoming.get("value").asInt()).as(procedure).isEqualTo(1);
+                assertThat(pattern.get("value").asInt()).as(procedure).isEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    void shouldStopkhops2AtVisitedLimit()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record record = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops2(node, 4, [], {maxVisited: 2}) " +
+                    "YIELD value, partial, stoppedBy RETURN value, partial, stoppedBy" ).single();
+
+            // Then I should get the nodes found before the limit was hit
+            assertThat(record.get("value").asInt()).isEqualTo(2);
+            assertThat(record.get("partial").asBoolean()).isTrue();
+            assertThat(record.get("stoppedBy").asString()).isEqualTo(TraversalBudget.VISITED);
+        }
+    }
+
+    @Test
+    void shouldStopParallelkhopsAtVisitedLimit()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record record = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 4, [], {maxVisited: 2}) " +
+                    "YIELD value, partial, stoppedBy RETURN value, partial, stoppedBy" ).single();
+
+            // Then I should get the nodes found before the limit was hit
+            assertThat(record.get("value").asInt()).isEqualTo(2);
+            assertThat(record.get("partial").asBoolean()).isTrue();
+            assertThat(record.get("stoppedBy").asString()).isEqualTo(TraversalBudget.VISITED);
+        }
+    }
+
+    @Test
+    void shouldNotFlagkhops2WithinLimits()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record record = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops2(node, 4, [], {maxVisited: 100, maxTime: 60000}) " +
+                    "YIELD value, partial, stoppedBy RETURN value, partial, stoppedBy" ).single();
+
+            // Then I should get the full count
+            assertThat(record.get("value").asInt()).isEqualTo(4);
+            assertThat(record.get("partial").asBoolean()).isFalse();
+            assertThat(record.get("stoppedBy").isNull()).isTrue();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"khops", "khops2", "parallel.khops2", "khops.auto", "khops.stream", "khops.batch"})
+    void shouldProfileEveryEngine(String engine)
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I profile the engine
+            List<Record> hops = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.profile(node, 4, [], $engine) " +
+                    "YIELD hop, discovered, workerMillis RETURN hop, discovered, workerMillis ORDER BY hop",
+                    Values.parameters( "engine", engine ) ).list();
+
+            // Then I should get one row per hop, each finding one more user
+            assertThat(hops).hasSize(4);
+            for (int i = 0; i < hops.size(); i++) {
+                assertThat(hops.get(i).get("hop").asInt()).isEqualTo(i + 1);
+                assertThat(hops.get(i).get("discovered").asInt()).isEqualTo(1);
+                assertThat(hops.get(i).get("workerMillis").asMap()).isNotEmpty();
+            }
+        }
+    }
+
+    @Test
+    void shouldProfileParallelkhops()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            List<Record> hops = session.run( "MATCH (node:User{username:'User-6'}) WITH node CALL com.maxdemarzi.khops.profile(node, 4, [], 'parallel.khops2') " +
+                    "YIELD hop, discovered RETURN hop, discovered ORDER BY hop" ).list();
+
+            // Then the hops should find every user within 4 hops
+            assertThat(hops).hasSize(4);
+            assertThat(hops.stream().mapToInt(hop -> hop.get("discovered").asInt()).sum()).isEqualTo(6);
+        }
+    }
+
+    @Test
+    void shouldReportMetrics()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops2(node, 2) YIELD value RETURN value" ).consume();
+
+            // When I use the procedure
+            Record record = session.run( "CALL com.maxdemarzi.khops.metrics() YIELD engine, calls, maxMillis " +
+                    "WHERE engine = 'khops2' RETURN calls, maxMillis" ).single();
+
+            // Then the call should have been counted
+            assertThat(record.get("calls").asLong()).isGreaterThanOrEqualTo(1);
+            assertThat(record.get("maxMillis").asDouble()).isGreaterThan(0.0);
+        }
+    }
+
+    @Test
+    void shouldKeepMetricsPerDatabase() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName khops2 = new ObjectName(KHopsMetrics.DOMAIN + ":type=Metrics,engine=khops2,*");
+        int registered = server.queryNames(khops2, null).size();
+
+        try (ServerControls other = TestServerBuilders.newInProcessBuilder().withProcedure(Procedures.class).newServer()) {
+            KHopsMetrics metrics = KHopsMetrics.get(other.graph());
+            assertThat(metrics).isNotSameAs(KHopsMetrics.get(neo4j.graph()));
+            assertThat(server.queryNames(khops2, null)).hasSize(registered + 1);
+
+            // Calls against this database are not counted by the other one
+            try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+            {
+                driver.session().run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops2(node, 2) YIELD value RETURN value" ).consume();
+            }
+            assertThat(metrics.engine(KHopsMetrics.KHOPS2).getCalls()).isEqualTo(0);
+        }
+
+        // Stopping the other database leaves the MBeans of this one registered
+        assertThat(server.queryNames(khops2, null)).hasSize(registered);
+        assertThat(KHopsMetrics.get(neo4j.graph()).engine(KHopsMetrics.KHOPS2).getCalls()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void shouldStreamkhops()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+
+            // Given I've started Neo4j with the procedure
+            //       which my 'neo4j' rule above does.
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.stream(node, 4) YIELD nodeId, hop " +
+                    "MATCH (n) WHERE id(n) = nodeId RETURN n.username AS username, hop ORDER BY hop" );
+
+            // Then I should get what I expect
+            List<Record> records = result.list();
+            assertThat(records).hasSize(4);
+            assertThat(records.get(0).get("username").asString()).isEqualTo("User-2");
+            assertThat(records.get(3).get("username").asString()).isEqualTo("User-5");
+            assertThat(records.get(3).get("hop").asInt()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void shouldStreamkhopsCounts()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+
+            // Given I've started Neo4j with the procedure
+            //       which my 'neo4j' rule above does.
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User{username:'User-6'}) WITH node CALL com.maxdemarzi.khops.stream(node, 4, [], false) YIELD hop, hopCount RETURN hop, hopCount" );
+
+            // Then I should get what I expect
+            List<Record> records = result.list();
+            assertThat(records).hasSize(4);
+            assertThat(records.get(0).get("hopCount").asInt()).isEqualTo(3);
+            assertThat(records.get(1).get("hopCount").asInt()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void shouldStreamkhopsDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            List<Record> outgoing = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.stream(node, 4, ['KNOWS>'], false) YIELD hop, hopCount RETURN hop, hopCount" ).list();
+            List<Record> incoming = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.khops.stream(node, 4, ['<KNOWS'], false) YIELD hop, hopCount RETURN hop, hopCount" ).list();
+
+            // Then I should get what I expect
+            assertThat(outgoing.get(0).get("hopCount").asInt()).isEqualTo(1);
+            assertThat(outgoing.get(1).get("hopCount").asInt()).isEqualTo(1);
+            assertThat(incoming.get(0).get("hopCount").asInt()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void shouldCountkhopsBatch()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+
+            // Given I've started Neo4j with the procedure
+            //       which my 'neo4j' rule above does.
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User) WHERE node.username IN ['User-1', 'User-6'] " +
+                    "WITH collect(node) AS nodes CALL com.maxdemarzi.khops.batch(nodes, 4) YIELD node, value " +
+                    "RETURN node.username AS username, value ORDER BY username" );
+
+            // Then I should get what I expect
+            List<Record> records = result.list();
+            assertThat(records).hasSize(2);
+            assertThat(records.get(0).get("value").asInt()).isEqualTo(4);
+            assertThat(records.get(1).get("value").asInt()).isEqualTo(6);
+        }
+    }
+
+    @Test
+    void shouldCountkhopsBatchwithRelTypes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+
+            // Given I've started Neo4j with the procedure
+            //       which my 'neo4j' rule above does.
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User) WHERE node.username IN ['User-1', 'User-6'] " +
+                    "WITH collect(node) AS nodes CALL com.maxdemarzi.khops.batch(nodes, 4, ['KNOWS']) YIELD node, value " +
+                    "RETURN node.username AS username, value ORDER BY username" );
+
+            // Then I should get what I expect
+            List<Record> records = result.list();
+            assertThat(records).hasSize(2);
+            assertThat(records.get(0).get("value").asInt()).isEqualTo(2);
+            assertThat(records.get(1).get("value").asInt()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void shouldCountkhopsBatchDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User) WHERE node.username IN ['User-1', 'User-3'] " +
+                    "WITH collect(node) AS nodes CALL com.maxdemarzi.khops.batch(nodes, 4, ['KNOWS>']) YIELD node, value " +
+                    "RETURN node.username AS username, value ORDER BY username" );
+
+            // Then I should get what I expect
+            List<Record> records = result.list();
+            assertThat(records).hasSize(2);
+            assertThat(records.get(0).get("value").asInt()).isEqualTo(2);
+            assertThat(records.get(1).get("value").asInt()).isEqualTo(0);
+        }
+    }
+
     private static final String MODEL_STATEMENT =
             "CREATE (n1:User { username:'User-1' })" +
                     "CREATE (n2:User { username:'User-2' })" +
@@ -0,0 +1,109 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KHopsWriteTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(WriteProcedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldWriteCountsOfEveryNode()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // Batches are cut from the node id space, which may run past the ids of the users
+            long highId = NodeIds.highId(neo4j.graph());
+
+            // When I use the procedure
+            Record result = session.run( "CALL com.maxdemarzi.khops.write(2, [], 'twoHops', {batchSize:3}) YIELD nodes, batches, complete RETURN nodes, batches, complete" ).single();
+
+            // Then I should get what I expect
+            assertThat(result.get("nodes").asLong()).isEqualTo(8);
+            assertThat(result.get("batches").asLong()).isEqualTo((highId + 2) / 3);
+            assertThat(result.get("complete").asBoolean()).isTrue();
+            assertThat(session.run( "MATCH (u:User{username:'User-1'}) RETURN u.twoHops AS value" ).single().get("value").asLong()).isEqualTo(2);
+            assertThat(session.run( "MATCH (u:User{username:'User-5'}) RETURN u.twoHops AS value" ).single().get("value").asLong()).isEqualTo(5);
+            assertThat(session.run( "MATCH (c:KHopsCheckpoint) RETURN count(c) AS value" ).single().get("value").asLong()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void shouldResumeFromCheckpoint()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // Given a run that stopped after its first batch of four nodes
+            session.run( "CREATE (:KHopsCheckpoint {job:'resumed:2:[]', nextNode:4})" ).consume();
+
+            // When I use the procedure with another batch size
+            Record result = session.run( "CALL com.maxdemarzi.khops.write(2, [], 'resumed', {batchSize:3}) YIELD nodes, resumedFrom, complete RETURN nodes, resumedFrom, complete" ).single();
+
+            // Then I should get what I expect, every node from the checkpoint on and none before
+            assertThat(result.get("resumedFrom").asLong()).isEqualTo(4);
+            assertThat(result.get("nodes").asLong()).isEqualTo(4);
+            assertThat(result.get("complete").asBoolean()).isTrue();
+            assertThat(session.run( "MATCH (u:User{username:'User-1'}) RETURN u.resumed AS value" ).single().get("value").isNull()).isTrue();
+            assertThat(session.run( "MATCH (u:User{username:'User-8'}) RETURN u.resumed AS value" ).single().get("value").asLong()).isEqualTo(3);
+            assertThat(session.run( "MATCH (c:KHopsCheckpoint) RETURN count(c) AS value" ).single().get("value").asLong()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void shouldWriteDirectedCounts()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record result = session.run( "CALL com.maxdemarzi.khops.write(2, ['KNOWS>'], 'outgoing') YIELD complete RETURN complete" ).single();
+
+            // Then I should get what I expect
+            assertThat(result.get("complete").asBoolean()).isTrue();
+            assertThat(session.run( "MATCH (u:User{username:'User-1'}) RETURN u.outgoing AS value" ).single().get("value").asLong()).isEqualTo(2);
+            assertThat(session.run( "MATCH (u:User{username:'User-3'}) RETURN u.outgoing AS value" ).single().get("value").asLong()).isEqualTo(0);
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -0,0 +1,65 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LabelFilterTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(Procedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldFilterkhopsByLabel()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            for (String procedure : new String[]{"com.maxdemarzi.khops2", "com.maxdemarzi.parallel.khops2", "com.maxdemarzi.khops.auto"}) {
+                // When I use the procedure
+                Record notThrough = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, [], {}, {notThrough: ['Gate']}) YIELD value RETURN value" ).single();
+                Record through = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, [], {}, {through: ['User']}) YIELD value RETURN value" ).single();
+                Record count = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL " + procedure + "(node, 4, [], {}, {count: ['Gate']}) YIELD value RETURN value" ).single();
+
+                // Then I should get what I expect, the gate is counted but never crossed
+                assertThat(notThrough.get("value").asInt()).as(procedure).isEqualTo(2);
+                assertThat(through.get("value").asInt()).as(procedure).isEqualTo(4);
+                assertThat(count.get("value").asInt()).as(procedure).isEqualTo(1);
+            }
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User:Gate { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
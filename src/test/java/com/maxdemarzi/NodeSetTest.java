@@ -0,0 +1,170 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NodeSetTest {
+    private static final long HIGH_ID = 1 << 20;
+
+    @Test
+    void shouldPickRoaringByIdSpace() {
+        assertThat(NodeSet.sparse(HIGH_ID).kind()).isEqualTo(NodeSet.Kind.ROARING_32);
+        assertThat(NodeSet.sparse(1L << 33).kind()).isEqualTo(NodeSet.Kind.ROARING_64);
+    }
+
+    @Test
+    void shouldAgreeAcrossRepresentations() {
+        for (NodeSet.Kind kind : NodeSet.Kind.values()) {
+            for (NodeSet.Kind otherKind : NodeSet.Kind.values()) {
+                NodeSet set = filled(kind, 1);
+                NodeSet other = filled(otherKind, 2);
+
+                NodeSet union = filled(kind, 1);
+                union.or(other);
+                NodeSet difference = filled(kind, 1);
+                difference.andNot(other);
+
+                long both = 0;
+                for (long nodeId : set.toArray()) {
+                    if (other.contains(nodeId)) {
+                        both++;
+                    }
+                }
+                assertThat(union.cardinality()).isEqualTo(set.cardinality() + other.cardinality() - both);
+                assertThat(difference.cardinality()).isEqualTo(set.cardinality() - both);
+                for (long nodeId : difference.toArray()) {
+                    assertThat(set.contains(nodeId)).isTrue();
+                    assertThat(other.contains(nodeId)).isFalse();
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldSwitchToBitsetOnceDense() {
+        NodeSet set = NodeSet.sparse(HIGH_ID);
+        for (long nodeId = 0; nodeId < HIGH_ID / NodeSet.DENSE_RATIO; nodeId++) {
+            set.add(nodeId * 3);
+        }
+        assertThat(set.adapt()).isFalse();
+
+        set.add(HIGH_ID - 1);
+        assertThat(set.adapt()).isTrue();
+        assertThat(set.kind()).isEqualTo(NodeSet.Kind.DENSE);
+        assertThat(set.bytes()).isEqualTo(HIGH_ID / Byte.SIZE);
+        assertThat(set.cardinality()).isEqualTo(HIGH_ID / NodeSet.DENSE_RATIO + 1);
+        assertThat(set.contains(3)).isTrue();
+        assertThat(set.contains(4)).isFalse();
+    }
+
+    @Test
+    void shouldGrowBitsetPastHighId() {
+        NodeSet set = NodeSet.create(NodeSet.Kind.DENSE, 64);
+        set.add(1000);
+        set.add(1000);
+        assertThat(set.cardinality()).isEqualTo(1);
+        assertThat(set.contains(1000)).isTrue();
+        assertThat(set.toArray()).containsExactly(1000);
+    }
+
+    @Test
+    void shouldSpillLargestSetsPastBudget() {
+        TraversalBudget budget = new TraversalBudget(null, 0, 0, 0, 1024, null);
+        NodeSet set = filled(NodeSet.Kind.ROARING_32, 1);
+        NodeSet other = filled(NodeSet.Kind.ROARING_32, 2);
+        NodeSet small = NodeSet.sparse(HIGH_ID);
+        small.add(7);
+        long[] ids = set.toArray();
+
+        // Only what it takes to fit the budget leaves the heap
+        budget.spill(set, small);
+        assertThat(set.kind()).isEqualTo(NodeSet.Kind.MAPPED);
+        assertThat(set.heapBytes()).isZero();
+        assertThat(small.kind()).isEqualTo(NodeSet.Kind.ROARING_32);
+        assertThat(set.adapt()).isTrue();
+        assertThat(set.toArray()).containsExactly(ids);
+
+        // Still merged between hops like any other set
+        long before = set.cardinality();
+        set.andNot(other);
+        set.or(other);
+        assertThat(set.cardinality()).isGreaterThanOrEqualTo(before);
+        for (long nodeId : other.toArray()) {
+            assertThat(set.contains(nodeId)).isTrue();
+        }
+
+        // A set taking in a spilled one spills too
+        small.or(set);
+        assertThat(small.kind()).isEqualTo(NodeSet.Kind.MAPPED);
+    }
+
+    @Test
+    void shouldShareSpillThresholdAmongOpenOutboxes() {
+        TraversalBudget budget = new TraversalBudget(null, 0, 0, 0, 1024, null);
+        budget.spill(Collections.emptyList());
+        long[] share = new long[1];
+        Supplier<Outbox> outboxes = () -> new Outbox() {
+            public void add(long nodeId) { }
+            public void merge(Outbox other) { }
+            public long visited() { return 0; }
+            public long bytes() { return 0; }
+            public void spill(long bytes, File directory) { share[0] = bytes; }
+        };
+
+        Outbox outbox = budget.open(outboxes);
+        budget.spill(outbox);
+        assertThat(share[0]).isEqualTo(1024);
+
+        // Every outbox not merged yet takes its part
+        Outbox[] others = new Outbox[7];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = budget.open(outboxes);
+        }
+        budget.spill(outbox);
+        assertThat(share[0]).isEqualTo(128);
+
+        for (Outbox other : others) {
+            budget.merge(outbox, other);
+        }
+        budget.spill(outbox);
+        assertThat(share[0]).isEqualTo(1024);
+    }
+
+    @Test
+    void shouldCountMappedSetAsItGoes() {
+        NodeSet set = NodeSet.create(NodeSet.Kind.MAPPED, HIGH_ID);
+        NodeSet other = filled(NodeSet.Kind.DENSE, 2);
+        set.or(filled(NodeSet.Kind.ROARING_32, 1));
+        long[] ids = set.toArray();
+        assertThat(set.cardinality()).isEqualTo(ids.length);
+
+        set.or(other);
+        set.and(other);
+        assertThat(set.cardinality()).isEqualTo(other.cardinality());
+        set.andNot(other);
+        assertThat(set.cardinality()).isZero();
+        assertThat(set.iterator().hasNext()).isFalse();
+
+        set.add(HIGH_ID + 5);
+        set.clear();
+        assertThat(set.cardinality()).isZero();
+        assertThat(set.contains(HIGH_ID + 5)).isFalse();
+        set.add(3);
+        assertThat(set.toArray()).containsExactly(3);
+    }
+
+    private static NodeSet filled(NodeSet.Kind kind, long seed) {
+        NodeSet set = NodeSet.create(kind, HIGH_ID);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < 10_000; i++) {
+            set.add(random.nextLong(HIGH_ID));
+        }
+        return set;
+    }
+}
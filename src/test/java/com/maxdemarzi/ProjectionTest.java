@@ -0,0 +1,145 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProjectionTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(ProjectionProcedures.class)
+                .withProcedure(Procedures.class)
+                // Ranges of 2 nodes, so loading splits the 8 users over several tasks
+                .withConfig(KHopsSettings.chunk_size, "2")
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldLoadProjection()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I load the projection
+            Record record = session.run( "CALL com.maxdemarzi.projection.load() YIELD relationshipTypes, relationships, bytes RETURN *" ).single();
+
+            // Then I should get what I expect
+            assertThat(record.get("relationships").asLong()).isEqualTo(8);
+            assertThat(record.get("relationshipTypes").asList()).containsOnly("KNOWS", "FRIENDS");
+            assertThat(record.get("bytes").asLong()).isGreaterThan(0);
+        }
+    }
+
+    @Test
+    void shouldCountkhops()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "CALL com.maxdemarzi.projection.load()" ).consume();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.projection.khops(node, 4) YIELD value RETURN value" );
+
+            // Then I should get what I expect
+            assertThat(result.single().get("value").asInt()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void shouldCountkhopswithRelTypes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "CALL com.maxdemarzi.projection.load(['KNOWS'])" ).consume();
+
+            // When I use the procedure
+            StatementResult result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.projection.khops(node, 4, ['KNOWS']) YIELD value RETURN value" );
+
+            // Then I should get what I expect
+            assertThat(result.single().get("value").asInt()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldCountkhopsLikeTheStoreAcrossRanges()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            session.run( "CALL com.maxdemarzi.projection.load()" ).consume();
+
+            // When I count the k-hops of every user from the projection and from the store
+            List<Record> records = session.run( "MATCH (node:User) WITH node " +
+                    "CALL com.maxdemarzi.projection.khops(node, 3) YIELD value WITH node, value AS projected " +
+                    "CALL com.maxdemarzi.khops2(node, 3) YIELD value RETURN node.username AS username, projected, value" ).list();
+
+            // Then they agree for nodes in every range
+            assertThat(records).hasSize(8);
+            for (Record record : records) {
+                assertThat(record.get("projected").asLong()).as(record.get("username").asString())
+                        .isEqualTo(record.get("value").asLong());
+            }
+        }
+    }
+
+    @Test
+    void shouldCountkhopsDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            session.run( "CALL com.maxdemarzi.projection.load()" ).consume();
+
+            // When I use the procedure
+            Record outgoing = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.projection.khops(node, 4, ['KNOWS>']) YIELD value RETURN value" ).single();
+            Record incoming = session.run( "MATCH (node:User{username:'User-3'}) WITH node CALL com.maxdemarzi.projection.khops(node, 4, ['<KNOWS']) YIELD value RETURN value" ).single();
+            Record anyOutgoing = session.run( "MATCH (node:User{username:'User-4'}) WITH node CALL com.maxdemarzi.projection.khops(node, 4, ['>']) YIELD value RETURN value" ).single();
+
+            // Then I should get what I expect
+            assertThat(outgoing.get("value").asInt()).isEqualTo(2);
+            assertThat(incoming.get("value").asInt()).isEqualTo(2);
+            assertThat(anyOutgoing.get("value").asInt()).isEqualTo(2);
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -0,0 +1,123 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ReachabilityTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(ReachabilityProcedures.class)
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldFindReachableNodes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record within = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-6'}) CALL com.maxdemarzi.khops.reachable(a, b, 5) YIELD reachable, distance RETURN reachable, distance" ).single();
+            Record beyond = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-6'}) CALL com.maxdemarzi.khops.reachable(a, b, 4) YIELD reachable, distance RETURN reachable, distance" ).single();
+
+            // Then I should get what I expect
+            assertThat(within.get("reachable").asBoolean()).isTrue();
+            assertThat(within.get("distance").asLong()).isEqualTo(5);
+            assertThat(beyond.get("reachable").asBoolean()).isFalse();
+            assertThat(beyond.get("distance").isNull()).isTrue();
+        }
+    }
+
+    @Test
+    void shouldFindReachableNodeswithRelTypes()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record knows = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-3'}) CALL com.maxdemarzi.khops.reachable(a, b, 2, ['KNOWS']) YIELD reachable, distance RETURN reachable, distance" ).single();
+            Record friends = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-3'}) CALL com.maxdemarzi.khops.reachable(a, b, 5, ['FRIENDS']) YIELD reachable RETURN reachable" ).single();
+
+            // Then I should get what I expect
+            assertThat(knows.get("reachable").asBoolean()).isTrue();
+            assertThat(knows.get("distance").asLong()).isEqualTo(2);
+            assertThat(friends.get("reachable").asBoolean()).isFalse();
+        }
+    }
+
+    @Test
+    void shouldCountOverlappingNeighbourhoods()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record apart = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-5'}) CALL com.maxdemarzi.khops.overlap(a, b, 2) YIELD countA, countB, overlap RETURN countA, countB, overlap" ).single();
+            Record siblings = session.run( "MATCH (a:User{username:'User-7'}), (b:User{username:'User-8'}) CALL com.maxdemarzi.khops.overlap(a, b, 1) YIELD overlap, jaccard RETURN overlap, jaccard" ).single();
+
+            // Then I should get what I expect
+            assertThat(apart.get("countA").asLong()).isEqualTo(2);
+            assertThat(apart.get("countB").asLong()).isEqualTo(5);
+            assertThat(apart.get("overlap").asLong()).isEqualTo(1);
+            assertThat(siblings.get("overlap").asLong()).isEqualTo(1);
+            assertThat(siblings.get("jaccard").asDouble()).isCloseTo(1.0, within(0.001));
+        }
+    }
+
+    @Test
+    void shouldFollowReachableDirections()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // When I use the procedure
+            Record forward = session.run( "MATCH (a:User{username:'User-1'}), (b:User{username:'User-3'}) CALL com.maxdemarzi.khops.reachable(a, b, 2, ['KNOWS>']) YIELD reachable, distance RETURN reachable, distance" ).single();
+            Record backward = session.run( "MATCH (a:User{username:'User-3'}), (b:User{username:'User-1'}) CALL com.maxdemarzi.khops.reachable(a, b, 5, ['KNOWS>']) YIELD reachable RETURN reachable" ).single();
+
+            // Then I should get what I expect, User-1 is only reached by following KNOWS backwards
+            assertThat(forward.get("reachable").asBoolean()).isTrue();
+            assertThat(forward.get("distance").asLong()).isEqualTo(2);
+            assertThat(backward.get("reachable").asBoolean()).isFalse();
+        }
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n6:User { username:'User-6' })" +
+                    "CREATE (n7:User { username:'User-7' })" +
+                    "CREATE (n8:User { username:'User-8' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n2)-[:FRIENDS]->(n1)" +
+                    "CREATE (n4)-[:FRIENDS]->(n3)" +
+                    "CREATE (n4)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n5)" +
+                    "CREATE (n6)-[:FRIENDS]->(n8)" +
+                    "CREATE (n6)-[:FRIENDS]->(n7)";
+}
@@ -0,0 +1,173 @@
+package com.maxdemarzi;
+
+import org.junit.jupiter.api.*;
+import org.neo4j.driver.v1.*;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+import java.util.concurrent.ForkJoinTask;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TraversalPoolTest {
+    private static ServerControls neo4j;
+
+    @BeforeAll
+    static void startNeo4j() {
+        neo4j = TestServerBuilders.newInProcessBuilder()
+                .withProcedure(Procedures.class)
+                .withProcedure(ProjectionProcedures.class)
+                .withProcedure(ApproximateProcedures.class)
+                .withConfig(KHopsSettings.max_concurrent_queries, "1")
+                .withConfig(KHopsSettings.admission_timeout, "10ms")
+                .withFixture(MODEL_STATEMENT)
+                .newServer();
+    }
+
+    @AfterAll
+    static void stopNeo4j() {
+        neo4j.close();
+    }
+
+    @Test
+    void shouldAdmitUpToMaxConcurrentQueries()
+    {
+        TraversalPool pool = new TraversalPool(2, 1, 10, 1024, 1000, false, 0);
+        pool.start();
+        try {
+            assertThat(pool.admit()).isTrue();
+            assertThat(pool.admit()).isFalse();
+            assertThat(pool.tryAdmit()).isFalse();
+            pool.release();
+            assertThat(pool.tryAdmit()).isTrue();
+            pool.release();
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test
+    void shouldRunNothingOnceStopped()
+    {
+        TraversalPool pool = new TraversalPool(2, 1, 10, 1024, 1000, false, 0);
+        pool.start();
+        assertThat(pool.invoke(ForkJoinTask.adapt(() -> 42))).isEqualTo(42);
+        pool.stop();
+
+        assertThat(pool.running()).isFalse();
+        assertThatThrownBy(() -> pool.invoke(ForkJoinTask.adapt(() -> 42))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldFallBackToSequentialWhenSaturated()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+            KHopsCache.get(neo4j.graph()).clear();
+
+            // Given the only slot of the pool is taken
+            TraversalPool pool = TraversalPool.get(neo4j.graph());
+            assertThat(pool.admit()).isTrue();
+            try {
+                // When I use the parallel procedure
+                StatementResult result = session.run( "MATCH (node:User{username:'User-1'}) WITH node CALL com.maxdemarzi.parallel.khops2(node, 4) YIELD value RETURN value" );
+
+                // Then it runs on the calling thread and counts the same, leaving the slot alone
+                assertThat(result.single().get("value").asInt()).isEqualTo(4);
+                assertThat(pool.tryAdmit()).isFalse();
+            } finally {
+                pool.release();
+            }
+        }
+    }
+
+    @Test
+    void shouldRefuseProjectionWhenSaturated()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // Given the only slot of the pool is taken
+            TraversalPool pool = TraversalPool.get(neo4j.graph());
+            assertThat(pool.admit()).isTrue();
+            try {
+                // When I load the projection
+                // Then it is refused instead of competing with the traversal for the workers
+                assertThatThrownBy(() -> session.run( "CALL com.maxdemarzi.projection.load()" ).consume())
+                        .isInstanceOf(ClientException.class)
+                        .hasMessageContaining("Too many parallel traversals");
+            } finally {
+                pool.release();
+            }
+
+            // And loads once the slot is free again
+            assertThat(session.run( "CALL com.maxdemarzi.projection.load() YIELD relationships RETURN relationships" ).single()
+                    .get("relationships").asLong()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void shouldRefuseEstimatesWhenSaturated()
+    {
+        // In a try-block, to make sure we close the driver after the test
+        try( Driver driver = GraphDatabase.driver( neo4j.boltURI() , Config.build().withoutEncryption().toConfig() ) )
+        {
+            Session session = driver.session();
+
+            // Given the only slot of the pool is taken
+            TraversalPool pool = TraversalPool.get(neo4j.graph());
+            assertThat(pool.admit()).isTrue();
+            try {
+                // When I estimate the k-hop sizes
+                // Then nothing is loaded
+                assertThatThrownBy(() -> session.run( "CALL com.maxdemarzi.khops.approx.load(2)" ).consume())
+                        .isInstanceOf(ClientException.class)
+                        .hasMessageContaining("Too many parallel traversals");
+            } finally {
+                pool.release();
+            }
+            assertThat(session.run( "CALL com.maxdemarzi.khops.approx.load(2) YIELD distance RETURN distance" ).single()
+                    .get("distance").asLong()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldGiveEveryDatabaseItsOwnPool()
+    {
+        try (ServerControls other = TestServerBuilders.newInProcessBuilder().withProcedure(Procedures.class).newServer()) {
+            assertThat(TraversalPool.get(other.graph())).isNotSameAs(TraversalPool.get(neo4j.graph()));
+        }
+    }
+
+    @Test
+    void shouldStopPoolWithDatabase()
+    {
+        ServerControls other = TestServerBuilders.newInProcessBuilder().withProcedure(Procedures.class).newServer();
+        TraversalPool pool = TraversalPool.get(other.graph());
+        assertThat(pool.running()).isTrue();
+
+        other.close();
+
+        assertThat(pool.running()).isFalse();
+        assertThatThrownBy(() -> pool.invoke(ForkJoinTask.adapt(() -> 42))).isInstanceOf(IllegalStateException.class);
+        // The pools of other databases keep running
+        assertThat(TraversalPool.get(neo4j.graph()).running()).isTrue();
+    }
+
+    private static final String MODEL_STATEMENT =
+            "CREATE (n1:User { username:'User-1' })" +
+                    "CREATE (n2:User { username:'User-2' })" +
+                    "CREATE (n3:User { username:'User-3' })" +
+                    "CREATE (n4:User { username:'User-4' })" +
+                    "CREATE (n5:User { username:'User-5' })" +
+                    "CREATE (n1)-[:KNOWS]->(n2)" +
+                    "CREATE (n2)-[:KNOWS]->(n3)" +
+                    "CREATE (n3)-[:KNOWS]->(n4)" +
+                    "CREATE (n4)-[:KNOWS]->(n5)";
+}